@@ -0,0 +1,265 @@
+package org.tdf.rlp;
+
+import java.util.*;
+
+/**
+ * map with byte array keys compared by content, keys are stored without wrapper objects.
+ * this is the default implementation when a field is declared as {@code Map<byte[], V>}.
+ * keys are not copied, mutating a key after insertion leads to undefined behavior.
+ */
+public class ByteArrayMap<V> extends AbstractMap<byte[], V> {
+    private final ByteArrayTable table;
+
+    public ByteArrayMap() {
+        this(0);
+    }
+
+    public ByteArrayMap(int expectedSize) {
+        this.table = new ByteArrayTable(expectedSize, true);
+    }
+
+    public ByteArrayMap(Map<byte[], ? extends V> map) {
+        this(map.size());
+        putAll(map);
+    }
+
+    @Override
+    public int size() {
+        return table.size;
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        return key instanceof byte[] && table.find((byte[]) key) >= 0;
+    }
+
+    @Override
+    public boolean containsValue(Object value) {
+        for (int i = table.next(0); i < table.capacity(); i = table.next(i + 1)) {
+            if (Objects.equals(value, table.values[i])) return true;
+        }
+        return false;
+    }
+
+    @Override
+    public V get(Object key) {
+        if (!(key instanceof byte[])) return null;
+        int i = table.find((byte[]) key);
+        return i < 0 ? null : (V) table.values[i];
+    }
+
+    @Override
+    public V put(byte[] key, V value) {
+        int i = table.insert(key);
+        if (i < 0) {
+            table.values[-(i + 1)] = value;
+            return null;
+        }
+        V old = (V) table.values[i];
+        table.values[i] = value;
+        return old;
+    }
+
+    @Override
+    public V remove(Object key) {
+        if (!(key instanceof byte[])) return null;
+        int i = table.find((byte[]) key);
+        if (i < 0) return null;
+        V old = (V) table.values[i];
+        table.removeAt(i);
+        return old;
+    }
+
+    @Override
+    public void clear() {
+        table.clear();
+    }
+
+    @Override
+    public Set<byte[]> keySet() {
+        return new AbstractSet<byte[]>() {
+            @Override
+            public Iterator<byte[]> iterator() {
+                return new SlotIterator<byte[]>() {
+                    @Override
+                    byte[] at(int slot) {
+                        return table.keys[slot];
+                    }
+                };
+            }
+
+            @Override
+            public int size() {
+                return table.size;
+            }
+
+            @Override
+            public boolean contains(Object o) {
+                return containsKey(o);
+            }
+
+            @Override
+            public boolean remove(Object o) {
+                int before = table.size;
+                ByteArrayMap.this.remove(o);
+                return table.size != before;
+            }
+
+            @Override
+            public void clear() {
+                table.clear();
+            }
+        };
+    }
+
+    @Override
+    public Collection<V> values() {
+        return new AbstractCollection<V>() {
+            @Override
+            public Iterator<V> iterator() {
+                return new SlotIterator<V>() {
+                    @Override
+                    V at(int slot) {
+                        return (V) table.values[slot];
+                    }
+                };
+            }
+
+            @Override
+            public int size() {
+                return table.size;
+            }
+
+            @Override
+            public void clear() {
+                table.clear();
+            }
+        };
+    }
+
+    @Override
+    public Set<Entry<byte[], V>> entrySet() {
+        return new AbstractSet<Entry<byte[], V>>() {
+            @Override
+            public Iterator<Entry<byte[], V>> iterator() {
+                return new SlotIterator<Entry<byte[], V>>() {
+                    @Override
+                    Entry<byte[], V> at(int slot) {
+                        return new SlotEntry(slot);
+                    }
+                };
+            }
+
+            @Override
+            public int size() {
+                return table.size;
+            }
+
+            @Override
+            public void clear() {
+                table.clear();
+            }
+        };
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (o == this) return true;
+        if (!(o instanceof Map)) return false;
+        Map<?, ?> m = (Map<?, ?>) o;
+        if (m.size() != size()) return false;
+        for (int i = table.next(0); i < table.capacity(); i = table.next(i + 1)) {
+            Object v = table.values[i];
+            if (v == null ? !(m.get(table.keys[i]) == null && m.containsKey(table.keys[i]))
+                    : !v.equals(m.get(table.keys[i])))
+                return false;
+        }
+        return true;
+    }
+
+    @Override
+    public int hashCode() {
+        int h = 0;
+        for (int i = table.next(0); i < table.capacity(); i = table.next(i + 1)) {
+            h += table.hashes[i] ^ Objects.hashCode(table.values[i]);
+        }
+        return h;
+    }
+
+    private abstract class SlotIterator<T> implements Iterator<T> {
+        private int next = table.next(0);
+        private int last = -1;
+        private int expectedModCount = table.modCount;
+
+        abstract T at(int slot);
+
+        @Override
+        public boolean hasNext() {
+            return next < table.capacity();
+        }
+
+        @Override
+        public T next() {
+            if (table.modCount != expectedModCount) throw new ConcurrentModificationException();
+            if (!hasNext()) throw new NoSuchElementException();
+            last = next;
+            next = table.next(next + 1);
+            return at(last);
+        }
+
+        @Override
+        public void remove() {
+            if (last < 0) throw new IllegalStateException();
+            if (table.modCount != expectedModCount) throw new ConcurrentModificationException();
+            table.removeAt(last);
+            last = -1;
+            expectedModCount = table.modCount;
+        }
+    }
+
+    private class SlotEntry implements Entry<byte[], V> {
+        private final int slot;
+        private final byte[] key;
+
+        SlotEntry(int slot) {
+            this.slot = slot;
+            this.key = table.keys[slot];
+        }
+
+        @Override
+        public byte[] getKey() {
+            return key;
+        }
+
+        @Override
+        public V getValue() {
+            return table.keys[slot] == key ? (V) table.values[slot] : get(key);
+        }
+
+        @Override
+        public V setValue(V value) {
+            if (table.keys[slot] != key) return put(key, value);
+            V old = (V) table.values[slot];
+            table.values[slot] = value;
+            return old;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Entry)) return false;
+            Entry<?, ?> e = (Entry<?, ?>) o;
+            return e.getKey() instanceof byte[] && Arrays.equals(key, (byte[]) e.getKey())
+                    && Objects.equals(getValue(), e.getValue());
+        }
+
+        @Override
+        public int hashCode() {
+            return ByteArrayTable.hash(key) ^ Objects.hashCode(getValue());
+        }
+
+        @Override
+        public String toString() {
+            return Arrays.toString(key) + "=" + getValue();
+        }
+    }
+}
@@ -0,0 +1,95 @@
+package org.tdf.rlp;
+
+import java.util.*;
+
+/**
+ * set of byte arrays compared by content, elements are stored without wrapper objects.
+ * this is the default implementation when a field is declared as {@code Set<byte[]>}.
+ * elements are not copied, mutating an element after insertion leads to undefined behavior.
+ */
+public class ByteArraySet extends AbstractSet<byte[]> {
+    private final ByteArrayTable table;
+
+    public ByteArraySet() {
+        this(0);
+    }
+
+    public ByteArraySet(int expectedSize) {
+        this.table = new ByteArrayTable(expectedSize, false);
+    }
+
+    public ByteArraySet(Collection<? extends byte[]> all) {
+        this(all.size());
+        addAll(all);
+    }
+
+    @Override
+    public int size() {
+        return table.size;
+    }
+
+    @Override
+    public boolean contains(Object o) {
+        return o instanceof byte[] && table.find((byte[]) o) >= 0;
+    }
+
+    @Override
+    public boolean add(byte[] bytes) {
+        return table.insert(bytes) < 0;
+    }
+
+    @Override
+    public boolean remove(Object o) {
+        if (!(o instanceof byte[])) return false;
+        int i = table.find((byte[]) o);
+        if (i < 0) return false;
+        table.removeAt(i);
+        return true;
+    }
+
+    @Override
+    public void clear() {
+        table.clear();
+    }
+
+    @Override
+    public Iterator<byte[]> iterator() {
+        return new Iterator<byte[]>() {
+            private int next = table.next(0);
+            private int last = -1;
+            private int expectedModCount = table.modCount;
+
+            @Override
+            public boolean hasNext() {
+                return next < table.capacity();
+            }
+
+            @Override
+            public byte[] next() {
+                if (table.modCount != expectedModCount) throw new ConcurrentModificationException();
+                if (!hasNext()) throw new NoSuchElementException();
+                last = next;
+                next = table.next(next + 1);
+                return table.keys[last];
+            }
+
+            @Override
+            public void remove() {
+                if (last < 0) throw new IllegalStateException();
+                if (table.modCount != expectedModCount) throw new ConcurrentModificationException();
+                table.removeAt(last);
+                last = -1;
+                expectedModCount = table.modCount;
+            }
+        };
+    }
+
+    @Override
+    public int hashCode() {
+        int h = 0;
+        for (int i = table.next(0); i < table.capacity(); i = table.next(i + 1)) {
+            h += table.hashes[i];
+        }
+        return h;
+    }
+}
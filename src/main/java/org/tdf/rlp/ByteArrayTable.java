@@ -0,0 +1,136 @@
+package org.tdf.rlp;
+
+import java.util.Arrays;
+
+/**
+ * open addressing hash table with linear probing, keys are byte arrays hashed and compared by content,
+ * backs ByteArrayMap and ByteArraySet without wrapping each key
+ */
+final class ByteArrayTable {
+    // marks a removed slot, so that probing continues through it
+    private static final byte[] DELETED = new byte[0];
+    private static final int MIN_CAPACITY = 8;
+
+    byte[][] keys;
+    // content hash of keys, avoid re-hashing on probing and resizing
+    int[] hashes;
+    // null if the table is a set
+    Object[] values;
+    int size;
+    // modification counter for fail-fast iterators
+    int modCount;
+    // number of live and deleted slots
+    private int occupied;
+    private int mask;
+
+    ByteArrayTable(int expectedSize, boolean withValues) {
+        int cap = MIN_CAPACITY;
+        while (cap * 3 / 4 < expectedSize) cap <<= 1;
+        allocate(cap, withValues);
+    }
+
+    static int hash(byte[] key) {
+        return Arrays.hashCode(key);
+    }
+
+    private static int spread(int h) {
+        h *= 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+
+    private void allocate(int cap, boolean withValues) {
+        keys = new byte[cap][];
+        hashes = new int[cap];
+        values = withValues ? new Object[cap] : null;
+        mask = cap - 1;
+        occupied = 0;
+    }
+
+    int capacity() {
+        return keys.length;
+    }
+
+    // slot of the key, or -1 if absent
+    int find(byte[] key) {
+        if (key == null) return -1;
+        int h = hash(key);
+        for (int i = spread(h) & mask; ; i = (i + 1) & mask) {
+            byte[] k = keys[i];
+            if (k == null) return -1;
+            if (k != DELETED && hashes[i] == h && Arrays.equals(k, key)) return i;
+        }
+    }
+
+    /**
+     * @return slot of the key if present, otherwise -(slot + 1) of the newly inserted key
+     */
+    int insert(byte[] key) {
+        if (key == null) throw new NullPointerException("null key is not allowed");
+        int h = hash(key);
+        int deleted = -1;
+        int i = spread(h) & mask;
+        for (; keys[i] != null; i = (i + 1) & mask) {
+            byte[] k = keys[i];
+            if (k == DELETED) {
+                if (deleted < 0) deleted = i;
+                continue;
+            }
+            if (hashes[i] == h && Arrays.equals(k, key)) return i;
+        }
+        // grow only for a new key, so that replacing a value never moves entries under an iterator
+        if (deleted >= 0) {
+            i = deleted;
+        } else if (occupied + 1 > keys.length * 3 / 4) {
+            // rehash in place if most occupied slots are deleted ones
+            rehash(size + 1 > keys.length / 2 ? keys.length << 1 : keys.length);
+            i = spread(h) & mask;
+            while (keys[i] != null) i = (i + 1) & mask;
+        }
+        if (keys[i] == null) occupied++;
+        keys[i] = key;
+        hashes[i] = h;
+        size++;
+        modCount++;
+        return -(i + 1);
+    }
+
+    void removeAt(int slot) {
+        keys[slot] = DELETED;
+        if (values != null) values[slot] = null;
+        size--;
+        modCount++;
+    }
+
+    void clear() {
+        Arrays.fill(keys, null);
+        if (values != null) Arrays.fill(values, null);
+        size = 0;
+        occupied = 0;
+        modCount++;
+    }
+
+    // index of the first live slot at or after from, or capacity() if none
+    int next(int from) {
+        for (int i = from; i < keys.length; i++) {
+            if (keys[i] != null && keys[i] != DELETED) return i;
+        }
+        return keys.length;
+    }
+
+    private void rehash(int cap) {
+        byte[][] oldKeys = keys;
+        int[] oldHashes = hashes;
+        Object[] oldValues = values;
+        allocate(cap, oldValues != null);
+        for (int j = 0; j < oldKeys.length; j++) {
+            byte[] k = oldKeys[j];
+            if (k == null || k == DELETED) continue;
+            int i = spread(oldHashes[j]) & mask;
+            while (keys[i] != null) i = (i + 1) & mask;
+            keys[i] = k;
+            hashes[i] = oldHashes[j];
+            if (values != null) values[i] = oldValues[j];
+            occupied++;
+        }
+    }
+}
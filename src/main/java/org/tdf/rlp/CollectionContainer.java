@@ -14,6 +14,8 @@ import java.util.Map;
 public class CollectionContainer<C extends Collection<T>, T> implements Container<T> {
     Class collectionType;
     Container contentType;
+    // decode as a read-only list backed by the encoded rlp list
+    boolean lazy;
 
     CollectionContainer(Class collectionType) {
         this.collectionType = collectionType;
@@ -12,14 +12,14 @@ public interface Container<V> {
             Arrays.asList(
                     Map.class, HashMap.class,
                     ConcurrentMap.class, ConcurrentHashMap.class,
-                    TreeMap.class)
+                    TreeMap.class, ByteArrayMap.class)
     );
 
     Set<Class<? extends Collection>> SUPPORTED_COLLECTIONS = new HashSet<>(Arrays.asList(
             Collection.class, List.class, ArrayList.class,
             Set.class, Queue.class, Deque.class,
             HashSet.class, TreeSet.class, LinkedList.class,
-            ArrayDeque.class)
+            ArrayDeque.class, ByteArraySet.class)
     );
 
     static Container<?> fromField(Field field) {
@@ -27,6 +27,11 @@ public interface Container<V> {
         Class clazz = null;
         if (field.isAnnotationPresent(RLPDecoding.class)) {
             clazz = field.getAnnotation(RLPDecoding.class).as();
+            if (field.getAnnotation(RLPDecoding.class).lazy()) {
+                if (field.getType() != List.class && field.getType() != Collection.class)
+                    throw new RuntimeException("@RLPDecoding.lazy is used on List typed field other than " + field.getName());
+                container.asCollection().lazy = true;
+            }
         }
         if (clazz == null || clazz == Void.class) return container;
         if (!Collection.class.isAssignableFrom(clazz) && !Map.class.isAssignableFrom(clazz))
@@ -79,11 +84,16 @@ public interface Container<V> {
                 MapContainer con = container.asMap();
                 con.keyType = fromType(types[0]);
                 con.valueType = fromType(types[1]);
+                // byte array keys are compared by content
+                if (clazz == Map.class && con.keyType.getType() == ContainerType.RAW && con.keyType.asRaw() == byte[].class)
+                    con.mapType = ByteArrayMap.class;
                 return con;
             }
             case COLLECTION: {
                 CollectionContainer con = container.asCollection();
                 con.contentType = fromType(types[0]);
+                if (clazz == Set.class && con.contentType.getType() == ContainerType.RAW && con.contentType.asRaw() == byte[].class)
+                    con.collectionType = ByteArraySet.class;
                 return con;
             }
             default:
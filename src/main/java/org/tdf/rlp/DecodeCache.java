@@ -0,0 +1,160 @@
+package org.tdf.rlp;
+
+import lombok.NonNull;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * bounded concurrent cache of decoded objects keyed by their class and encoding, so bytes seen recently,
+ * e.g. a transaction received from gossip and again in a block, are decoded once.
+ * plugged into {@link RLPMapper#withDecodeCache(DecodeCache, Class[])} for opted-in classes.
+ * <p>
+ * the cache is split into stripes by the hash of the content, each stripe is a lru map guarded by its own lock,
+ * so capacity is approximate and decoding runs outside of the locks.
+ * cached objects are shared by all callers and should be immutable,
+ * the encoded arrays are copied on a miss, so callers may reuse their buffers.
+ * objects are decoded with the context of the caller, a cache should be shared by decoders with the same context.
+ */
+public final class DecodeCache {
+    public static final int DEFAULT_STRIPES = 16;
+
+    private final Stripe[] stripes;
+    private final int mask;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    public DecodeCache(int capacity) {
+        this(capacity, DEFAULT_STRIPES);
+    }
+
+    public DecodeCache(int capacity, int stripes) {
+        if (capacity <= 0 || stripes <= 0) throw new RuntimeException("capacity and stripes should be positive");
+        int n = Integer.highestOneBit(Math.min(stripes, capacity));
+        this.stripes = new Stripe[n];
+        for (int i = 0; i < n; i++) {
+            this.stripes[i] = new Stripe((capacity + n - 1) / n);
+        }
+        this.mask = n - 1;
+    }
+
+    private static int spread(int h) {
+        h *= 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+
+    public <T> T decode(byte[] encoded, Class<T> clazz) {
+        return decode(encoded, clazz, RLPContext.EMPTY);
+    }
+
+    public <T> T decode(@NonNull byte[] encoded, @NonNull Class<T> clazz, RLPContext context) {
+        Key key = new Key(clazz, encoded);
+        Stripe stripe = stripes[spread(key.hash) & mask];
+        Object o;
+        synchronized (stripe) {
+            o = stripe.get(key);
+        }
+        if (o != null) {
+            hits.increment();
+            return (T) o;
+        }
+        misses.increment();
+        // callers may reuse their buffer, the key and the cached object should not share it
+        Key copy = new Key(clazz, encoded.clone(), key.hash);
+        T decoded = RLPCodec.decode(copy.encoded, clazz, context);
+        if (decoded == null) return null;
+        synchronized (stripe) {
+            // decoded concurrently by another thread
+            Object prev = stripe.putIfAbsent(copy, decoded);
+            return prev == null ? decoded : (T) prev;
+        }
+    }
+
+    public int size() {
+        int size = 0;
+        for (Stripe s : stripes) {
+            synchronized (s) {
+                size += s.size();
+            }
+        }
+        return size;
+    }
+
+    public long getHits() {
+        return hits.sum();
+    }
+
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    public long getEvictions() {
+        return evictions.sum();
+    }
+
+    public double getHitRate() {
+        long h = hits.sum();
+        long total = h + misses.sum();
+        return total == 0 ? 0 : h * 1.0 / total;
+    }
+
+    public void clear() {
+        for (Stripe s : stripes) {
+            synchronized (s) {
+                s.clear();
+            }
+        }
+        hits.reset();
+        misses.reset();
+        evictions.reset();
+    }
+
+    private static final class Key {
+        private final Class<?> clazz;
+        private final byte[] encoded;
+        private final int hash;
+
+        private Key(Class<?> clazz, byte[] encoded) {
+            this(clazz, encoded, Arrays.hashCode(encoded) * 31 + clazz.hashCode());
+        }
+
+        private Key(Class<?> clazz, byte[] encoded, int hash) {
+            this.clazz = clazz;
+            this.encoded = encoded;
+            this.hash = hash;
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Key)) return false;
+            Key other = (Key) o;
+            return hash == other.hash && clazz == other.clazz && Arrays.equals(encoded, other.encoded);
+        }
+    }
+
+    // lru in access order
+    private final class Stripe extends LinkedHashMap<Key, Object> {
+        private final int capacity;
+
+        private Stripe(int capacity) {
+            super(16, 0.75f, true);
+            this.capacity = capacity;
+        }
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Key, Object> eldest) {
+            if (size() <= capacity) return false;
+            evictions.increment();
+            return true;
+        }
+    }
+}
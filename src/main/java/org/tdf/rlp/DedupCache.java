@@ -0,0 +1,108 @@
+package org.tdf.rlp;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * bounded cache which deduplicates byte[] and String values decoded from rlp items,
+ * equal values decoded with the same cache share one instance.
+ * enabled by {@link RLPContext#withDedupCache(DedupCache)}, e.g. one cache per session or per index.
+ * <p>
+ * the cache is direct mapped, a colliding value replaces the cached one, so memory is bounded by capacity.
+ * values longer than maxLength are never cached.
+ * shared byte arrays must be treated as immutable.
+ */
+public final class DedupCache {
+    public static final int DEFAULT_MAX_LENGTH = 64;
+
+    private final byte[][] bytes;
+    private final StringEntry[] strings;
+    private final int mask;
+    private final int maxLength;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+
+    public DedupCache(int capacity) {
+        this(capacity, DEFAULT_MAX_LENGTH);
+    }
+
+    public DedupCache(int capacity, int maxLength) {
+        if (capacity <= 0) throw new RuntimeException("capacity should be positive");
+        int cap = Integer.highestOneBit(capacity);
+        if (cap < capacity) cap <<= 1;
+        this.bytes = new byte[cap][];
+        this.strings = new StringEntry[cap];
+        this.mask = cap - 1;
+        this.maxLength = maxLength;
+    }
+
+    private static int index(int h, int mask) {
+        h *= 0x9E3779B9;
+        return (h ^ (h >>> 16)) & mask;
+    }
+
+    byte[] bytes(RLPItem item) {
+        LazyByteArray data = item.getData();
+        if (data.size() == 0 || data.size() > maxLength) return item.asBytes();
+        int i = index(data.contentHash(), mask);
+        byte[] cached = bytes[i];
+        if (cached != null && data.contentEquals(cached)) {
+            hits.increment();
+            return cached;
+        }
+        misses.increment();
+        // never cache the content of a shared item
+        byte[] res = item.asBytes();
+        bytes[i] = res;
+        return res;
+    }
+
+    String string(RLPItem item) {
+        LazyByteArray data = item.getData();
+        if (data.size() == 0 || data.size() > maxLength) return item.asString();
+        int i = index(data.contentHash(), mask);
+        StringEntry cached = strings[i];
+        if (cached != null && data.contentEquals(cached.encoded)) {
+            hits.increment();
+            return cached.value;
+        }
+        misses.increment();
+        byte[] encoded = item.asBytes();
+        StringEntry entry = new StringEntry(encoded, new String(encoded, StandardCharsets.UTF_8));
+        strings[i] = entry;
+        return entry.value;
+    }
+
+    public long getHits() {
+        return hits.sum();
+    }
+
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    public double getHitRate() {
+        long h = hits.sum();
+        long total = h + misses.sum();
+        return total == 0 ? 0 : h * 1.0 / total;
+    }
+
+    public void clear() {
+        Arrays.fill(bytes, null);
+        Arrays.fill(strings, null);
+        hits.reset();
+        misses.reset();
+    }
+
+    private static final class StringEntry {
+        private final byte[] encoded;
+        private final String value;
+
+        private StringEntry(byte[] encoded, String value) {
+            this.encoded = encoded;
+            this.value = value;
+        }
+    }
+}
@@ -0,0 +1,93 @@
+package org.tdf.rlp;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * pool of direct ByteBuffers in power of two size classes between minSize and maxSize,
+ * at most buffersPerClass idle buffers are kept for each class.
+ * requests larger than maxSize are allocated directly and not pooled.
+ * <p>
+ * used by {@link RLPCodec#encode(Object, DirectBufferPool)}, a released buffer must not be used anymore,
+ * including its duplicates and slices.
+ */
+public final class DirectBufferPool {
+    public static final int DEFAULT_MIN_SIZE = 256;
+    public static final int DEFAULT_MAX_SIZE = 1 << 20;
+    public static final int DEFAULT_BUFFERS_PER_CLASS = 64;
+
+    private final int minShift;
+    private final int maxSize;
+    private final int buffersPerClass;
+    private final ConcurrentLinkedQueue<ByteBuffer>[] idle;
+    private final AtomicInteger[] idleCount;
+
+    public DirectBufferPool() {
+        this(DEFAULT_MIN_SIZE, DEFAULT_MAX_SIZE, DEFAULT_BUFFERS_PER_CLASS);
+    }
+
+    public DirectBufferPool(int minSize, int maxSize, int buffersPerClass) {
+        if (minSize <= 0 || maxSize < minSize || maxSize > (1 << 30))
+            throw new RuntimeException("invalid buffer size range " + minSize + " " + maxSize);
+        this.minShift = ceilShift(minSize);
+        this.maxSize = 1 << ceilShift(maxSize);
+        this.buffersPerClass = buffersPerClass;
+        int classes = ceilShift(maxSize) - minShift + 1;
+        this.idle = new ConcurrentLinkedQueue[classes];
+        this.idleCount = new AtomicInteger[classes];
+        for (int i = 0; i < classes; i++) {
+            idle[i] = new ConcurrentLinkedQueue<>();
+            idleCount[i] = new AtomicInteger();
+        }
+    }
+
+    private static int ceilShift(int size) {
+        return size <= 1 ? 0 : Integer.SIZE - Integer.numberOfLeadingZeros(size - 1);
+    }
+
+    private int classOf(int size) {
+        return Math.max(ceilShift(size) - minShift, 0);
+    }
+
+    /**
+     * @return a direct buffer with capacity of at least size, position 0 and limit size
+     */
+    public ByteBuffer acquire(int size) {
+        if (size < 0) throw new RuntimeException("negative size " + size);
+        if (size > maxSize) return ByteBuffer.allocateDirect(size);
+        int c = classOf(size);
+        ByteBuffer buf = idle[c].poll();
+        if (buf == null) {
+            buf = ByteBuffer.allocateDirect(1 << (c + minShift));
+        } else {
+            idleCount[c].decrementAndGet();
+        }
+        buf.clear().limit(size);
+        return buf;
+    }
+
+    /**
+     * return a buffer acquired from this pool, buffers of other sizes or heap buffers are ignored
+     */
+    public void release(ByteBuffer buf) {
+        if (buf == null || !buf.isDirect()) return;
+        int capacity = buf.capacity();
+        if (capacity > maxSize || Integer.bitCount(capacity) != 1 || capacity < (1 << minShift)) return;
+        int c = classOf(capacity);
+        if (idleCount[c].incrementAndGet() > buffersPerClass) {
+            idleCount[c].decrementAndGet();
+            return;
+        }
+        idle[c].offer(buf);
+    }
+
+    // number of idle buffers
+    public int size() {
+        int n = 0;
+        for (AtomicInteger i : idleCount) {
+            n += i.get();
+        }
+        return n;
+    }
+}
@@ -0,0 +1,74 @@
+package org.tdf.rlp;
+
+import lombok.NonNull;
+
+import java.lang.reflect.Field;
+import java.util.*;
+
+/**
+ * a subset of the fields of a pojo class, encoded as a list of the selected fields in declaration order, e.g.
+ * the signing hash of a transaction without its signature
+ * <pre>
+ * FieldMask unsigned = FieldMask.exclude(Transaction.class, "v", "r", "s");
+ * byte[] signingHash = RLPCodec.keccak256(tx, unsigned);
+ * </pre>
+ * the plan of the mask is compiled once and masks are cached by class and field names,
+ * encoding reads the selected fields of the object directly without copying it.
+ */
+public final class FieldMask {
+    private static Map<String, FieldMask> MASKS = new HashMap<>();
+
+    private final Class<?> clazz;
+    private final TypeCodec.Encoder encoder;
+
+    private FieldMask(Class<?> clazz, boolean[] mask) {
+        this.clazz = clazz;
+        this.encoder = TypeCodec.pojoEncoder(clazz, mask);
+    }
+
+    // mask of all the fields of clazz but fields
+    public static FieldMask exclude(@NonNull Class<?> clazz, @NonNull String... fields) {
+        return get(clazz, false, fields);
+    }
+
+    // mask of fields of clazz only
+    public static FieldMask include(@NonNull Class<?> clazz, @NonNull String... fields) {
+        return get(clazz, true, fields);
+    }
+
+    private static FieldMask get(Class<?> clazz, boolean include, String[] fields) {
+        String key = clazz.getName() + (include ? "+" : "-") + String.join(",", fields);
+        FieldMask mask = MASKS.get(key);
+        if (mask != null && mask.clazz == clazz) return mask;
+        mask = compile(clazz, include, fields);
+        Map<String, FieldMask> copied = new HashMap<>(MASKS);
+        copied.put(key, mask);
+        MASKS = copied;
+        return mask;
+    }
+
+    private static FieldMask compile(Class<?> clazz, boolean include, String[] fields) {
+        if (RLPUtils.getAnnotatedRLPEncoder(clazz) != null)
+            throw new RuntimeException(clazz.getName() + " is encoded by its own encoder");
+        List<Field> all = RLPUtils.getRLPFields(clazz);
+        if (all.isEmpty()) throw new RuntimeException("no encodable field of " + clazz.getName() + " found");
+        Set<String> names = new HashSet<>(Arrays.asList(fields));
+        boolean[] mask = new boolean[all.size()];
+        for (int i = 0; i < mask.length; i++) {
+            mask[i] = names.remove(all.get(i).getName()) == include;
+        }
+        if (!names.isEmpty())
+            throw new RuntimeException("fields " + names + " of " + clazz.getName() + " not found");
+        return new FieldMask(clazz, mask);
+    }
+
+    public Class<?> getType() {
+        return clazz;
+    }
+
+    // rlp list of the selected fields of o
+    public RLPList encode(@NonNull Object o, @NonNull RLPContext context) {
+        if (!clazz.isInstance(o)) throw new RuntimeException(o.getClass().getName() + " is not a " + clazz.getName());
+        return encoder.encode(o, context).asRLPList();
+    }
+}
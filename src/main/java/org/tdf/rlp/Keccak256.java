@@ -0,0 +1,342 @@
+package org.tdf.rlp;
+
+import lombok.NonNull;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.security.MessageDigest;
+import java.util.function.Supplier;
+
+/**
+ * keccak-256 as used by ethereum (original keccak padding, not sha3-256).
+ * <p>
+ * the state is 25 longs absorbed 136 bytes at a time, full blocks are absorbed from the input directly
+ * and the permutation is unrolled over local variables. an instance is reset after digest() and reusable,
+ * {@link #hash(byte[])} and {@link #PER_THREAD} reuse one instance per thread.
+ */
+public final class Keccak256 extends MessageDigest implements Cloneable {
+    public static final int DIGEST_LENGTH = 32;
+
+    // rate in bytes for 256-bit capacity
+    private static final int RATE = 136;
+    private static final int RATE_LANES = RATE / Long.BYTES;
+
+    private static final long[] ROUND_CONSTANTS = {
+            0x0000000000000001L, 0x0000000000008082L, 0x800000000000808aL, 0x8000000080008000L,
+            0x000000000000808bL, 0x0000000080000001L, 0x8000000080008081L, 0x8000000000008009L,
+            0x000000000000008aL, 0x0000000000000088L, 0x0000000080008009L, 0x000000008000000aL,
+            0x000000008000808bL, 0x800000000000008bL, 0x8000000000008089L, 0x8000000000008003L,
+            0x8000000000008002L, 0x8000000000000080L, 0x000000000000800aL, 0x800000008000000aL,
+            0x8000000080008081L, 0x8000000000008080L, 0x0000000080000001L, 0x8000000080008008L
+    };
+
+    private static final ThreadLocal<Keccak256> INSTANCES = ThreadLocal.withInitial(Keccak256::new);
+
+    /**
+     * digest factory for {@link RLPElement#hash(Supplier)} which reuses one instance per thread,
+     * the instance should not be retained by the caller
+     */
+    public static final Supplier<Keccak256> PER_THREAD = INSTANCES::get;
+
+    private long[] state = new long[25];
+    // partial block
+    private byte[] buffer = new byte[RATE];
+    private int position;
+
+    public Keccak256() {
+        super("KECCAK-256");
+    }
+
+    public static byte[] hash(@NonNull byte[] input) {
+        return hash(input, 0, input.length);
+    }
+
+    public static byte[] hash(@NonNull byte[] input, int offset, int length) {
+        Keccak256 k = INSTANCES.get();
+        k.reset();
+        k.update(input, offset, length);
+        return k.digest();
+    }
+
+    // hash of the remaining bytes of input, the position of input is advanced to its limit
+    public static byte[] hash(@NonNull ByteBuffer input) {
+        Keccak256 k = INSTANCES.get();
+        k.reset();
+        k.update(input);
+        return k.digest();
+    }
+
+    @Override
+    protected int engineGetDigestLength() {
+        return DIGEST_LENGTH;
+    }
+
+    @Override
+    protected void engineUpdate(byte input) {
+        buffer[position++] = input;
+        if (position == RATE) {
+            absorb(buffer, 0);
+            position = 0;
+        }
+    }
+
+    @Override
+    protected void engineUpdate(byte[] input, int offset, int length) {
+        if (position > 0) {
+            int n = Math.min(length, RATE - position);
+            System.arraycopy(input, offset, buffer, position, n);
+            position += n;
+            offset += n;
+            length -= n;
+            if (position < RATE) return;
+            absorb(buffer, 0);
+            position = 0;
+        }
+        while (length >= RATE) {
+            absorb(input, offset);
+            offset += RATE;
+            length -= RATE;
+        }
+        if (length > 0) {
+            System.arraycopy(input, offset, buffer, 0, length);
+            position = length;
+        }
+    }
+
+    @Override
+    protected void engineUpdate(ByteBuffer input) {
+        if (input.hasArray()) {
+            int n = input.remaining();
+            engineUpdate(input.array(), input.arrayOffset() + input.position(), n);
+            input.position(input.position() + n);
+            return;
+        }
+        while (position > 0 && input.hasRemaining()) {
+            engineUpdate(input.get());
+        }
+        if (input.remaining() >= RATE) {
+            ByteBuffer le = input.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+            int p = le.position();
+            while (le.limit() - p >= RATE) {
+                for (int i = 0; i < RATE_LANES; i++) {
+                    state[i] ^= le.getLong(p + i * Long.BYTES);
+                }
+                permute(state);
+                p += RATE;
+            }
+            input.position(p);
+        }
+        int n = input.remaining();
+        input.get(buffer, position, n);
+        position += n;
+    }
+
+    @Override
+    protected byte[] engineDigest() {
+        byte[] res = new byte[DIGEST_LENGTH];
+        finish(res, 0);
+        return res;
+    }
+
+    @Override
+    protected int engineDigest(byte[] buf, int offset, int len) {
+        if (len < DIGEST_LENGTH) throw new RuntimeException("output buffer too small");
+        finish(buf, offset);
+        return DIGEST_LENGTH;
+    }
+
+    @Override
+    protected void engineReset() {
+        for (int i = 0; i < state.length; i++) {
+            state[i] = 0;
+        }
+        position = 0;
+    }
+
+    @Override
+    public Keccak256 clone() throws CloneNotSupportedException {
+        Keccak256 k = (Keccak256) super.clone();
+        k.state = state.clone();
+        k.buffer = buffer.clone();
+        return k;
+    }
+
+    private void finish(byte[] out, int offset) {
+        for (int i = position; i < RATE; i++) {
+            buffer[i] = 0;
+        }
+        buffer[position] = 0x01;
+        buffer[RATE - 1] |= (byte) 0x80;
+        absorb(buffer, 0);
+        for (int i = 0; i < DIGEST_LENGTH / Long.BYTES; i++) {
+            long l = state[i];
+            for (int j = 0; j < Long.BYTES; j++) {
+                out[offset + i * Long.BYTES + j] = (byte) (l >>> (j * 8));
+            }
+        }
+        engineReset();
+    }
+
+    private void absorb(byte[] input, int offset) {
+        long[] s = state;
+        for (int i = 0; i < RATE_LANES; i++) {
+            int o = offset + i * Long.BYTES;
+            s[i] ^= (input[o] & 0xffL)
+                    | (input[o + 1] & 0xffL) << 8
+                    | (input[o + 2] & 0xffL) << 16
+                    | (input[o + 3] & 0xffL) << 24
+                    | (input[o + 4] & 0xffL) << 32
+                    | (input[o + 5] & 0xffL) << 40
+                    | (input[o + 6] & 0xffL) << 48
+                    | (input[o + 7] & 0xffL) << 56;
+        }
+        permute(s);
+    }
+
+    // keccak-f[1600], lane (x, y) is a[x + 5y]
+    private static void permute(long[] a) {
+        long a00 = a[0], a01 = a[1], a02 = a[2], a03 = a[3], a04 = a[4];
+        long a05 = a[5], a06 = a[6], a07 = a[7], a08 = a[8], a09 = a[9];
+        long a10 = a[10], a11 = a[11], a12 = a[12], a13 = a[13], a14 = a[14];
+        long a15 = a[15], a16 = a[16], a17 = a[17], a18 = a[18], a19 = a[19];
+        long a20 = a[20], a21 = a[21], a22 = a[22], a23 = a[23], a24 = a[24];
+
+        for (int round = 0; round < 24; round++) {
+            // theta
+            long c0 = a00 ^ a05 ^ a10 ^ a15 ^ a20;
+            long c1 = a01 ^ a06 ^ a11 ^ a16 ^ a21;
+            long c2 = a02 ^ a07 ^ a12 ^ a17 ^ a22;
+            long c3 = a03 ^ a08 ^ a13 ^ a18 ^ a23;
+            long c4 = a04 ^ a09 ^ a14 ^ a19 ^ a24;
+
+            long d0 = (c1 << 1 | c1 >>> 63) ^ c4;
+            long d1 = (c2 << 1 | c2 >>> 63) ^ c0;
+            long d2 = (c3 << 1 | c3 >>> 63) ^ c1;
+            long d3 = (c4 << 1 | c4 >>> 63) ^ c2;
+            long d4 = (c0 << 1 | c0 >>> 63) ^ c3;
+
+            a00 ^= d0;
+            a05 ^= d0;
+            a10 ^= d0;
+            a15 ^= d0;
+            a20 ^= d0;
+            a01 ^= d1;
+            a06 ^= d1;
+            a11 ^= d1;
+            a16 ^= d1;
+            a21 ^= d1;
+            a02 ^= d2;
+            a07 ^= d2;
+            a12 ^= d2;
+            a17 ^= d2;
+            a22 ^= d2;
+            a03 ^= d3;
+            a08 ^= d3;
+            a13 ^= d3;
+            a18 ^= d3;
+            a23 ^= d3;
+            a04 ^= d4;
+            a09 ^= d4;
+            a14 ^= d4;
+            a19 ^= d4;
+            a24 ^= d4;
+
+            // rho and pi
+            c1 = a01 << 1 | a01 >>> 63;
+            a01 = a06 << 44 | a06 >>> 20;
+            a06 = a09 << 20 | a09 >>> 44;
+            a09 = a22 << 61 | a22 >>> 3;
+            a22 = a14 << 39 | a14 >>> 25;
+            a14 = a20 << 18 | a20 >>> 46;
+            a20 = a02 << 62 | a02 >>> 2;
+            a02 = a12 << 43 | a12 >>> 21;
+            a12 = a13 << 25 | a13 >>> 39;
+            a13 = a19 << 8 | a19 >>> 56;
+            a19 = a23 << 56 | a23 >>> 8;
+            a23 = a15 << 41 | a15 >>> 23;
+            a15 = a04 << 27 | a04 >>> 37;
+            a04 = a24 << 14 | a24 >>> 50;
+            a24 = a21 << 2 | a21 >>> 62;
+            a21 = a08 << 55 | a08 >>> 9;
+            a08 = a16 << 45 | a16 >>> 19;
+            a16 = a05 << 36 | a05 >>> 28;
+            a05 = a03 << 28 | a03 >>> 36;
+            a03 = a18 << 21 | a18 >>> 43;
+            a18 = a17 << 15 | a17 >>> 49;
+            a17 = a11 << 10 | a11 >>> 54;
+            a11 = a07 << 6 | a07 >>> 58;
+            a07 = a10 << 3 | a10 >>> 61;
+            a10 = c1;
+
+            // chi
+            c0 = a00 ^ (~a01 & a02);
+            c1 = a01 ^ (~a02 & a03);
+            a02 ^= ~a03 & a04;
+            a03 ^= ~a04 & a00;
+            a04 ^= ~a00 & a01;
+            a00 = c0;
+            a01 = c1;
+
+            c0 = a05 ^ (~a06 & a07);
+            c1 = a06 ^ (~a07 & a08);
+            a07 ^= ~a08 & a09;
+            a08 ^= ~a09 & a05;
+            a09 ^= ~a05 & a06;
+            a05 = c0;
+            a06 = c1;
+
+            c0 = a10 ^ (~a11 & a12);
+            c1 = a11 ^ (~a12 & a13);
+            a12 ^= ~a13 & a14;
+            a13 ^= ~a14 & a10;
+            a14 ^= ~a10 & a11;
+            a10 = c0;
+            a11 = c1;
+
+            c0 = a15 ^ (~a16 & a17);
+            c1 = a16 ^ (~a17 & a18);
+            a17 ^= ~a18 & a19;
+            a18 ^= ~a19 & a15;
+            a19 ^= ~a15 & a16;
+            a15 = c0;
+            a16 = c1;
+
+            c0 = a20 ^ (~a21 & a22);
+            c1 = a21 ^ (~a22 & a23);
+            a22 ^= ~a23 & a24;
+            a23 ^= ~a24 & a20;
+            a24 ^= ~a20 & a21;
+            a20 = c0;
+            a21 = c1;
+
+            // iota
+            a00 ^= ROUND_CONSTANTS[round];
+        }
+
+        a[0] = a00;
+        a[1] = a01;
+        a[2] = a02;
+        a[3] = a03;
+        a[4] = a04;
+        a[5] = a05;
+        a[6] = a06;
+        a[7] = a07;
+        a[8] = a08;
+        a[9] = a09;
+        a[10] = a10;
+        a[11] = a11;
+        a[12] = a12;
+        a[13] = a13;
+        a[14] = a14;
+        a[15] = a15;
+        a[16] = a16;
+        a[17] = a17;
+        a[18] = a18;
+        a[19] = a19;
+        a[20] = a20;
+        a[21] = a21;
+        a[22] = a22;
+        a[23] = a23;
+        a[24] = a24;
+    }
+}
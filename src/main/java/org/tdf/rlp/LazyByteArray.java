@@ -1,5 +1,7 @@
 package org.tdf.rlp;
 
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
 import java.util.Arrays;
 
 // reduce byte array copy by lazy loading
@@ -31,4 +33,42 @@ final class LazyByteArray {
     int size() {
         return limit - offset;
     }
+
+    // backing array of the content [offset(), offset() + size())
+    byte[] array() {
+        return data;
+    }
+
+    int offset() {
+        return offset;
+    }
+
+    byte first() {
+        return data[offset];
+    }
+
+    void writeTo(ByteBuffer dst) {
+        dst.put(data, offset, limit - offset);
+    }
+
+    void digestTo(MessageDigest digest) {
+        digest.update(data, offset, limit - offset);
+    }
+
+    // hash code of content, same as Arrays.hashCode(get())
+    int contentHash() {
+        int h = 1;
+        for (int i = offset; i < limit; i++) {
+            h = 31 * h + data[i];
+        }
+        return h;
+    }
+
+    boolean contentEquals(byte[] other) {
+        if (other.length != size()) return false;
+        for (int i = 0; i < other.length; i++) {
+            if (data[offset + i] != other[i]) return false;
+        }
+        return true;
+    }
 }
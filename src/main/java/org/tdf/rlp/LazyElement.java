@@ -1,6 +1,8 @@
 package org.tdf.rlp;
 
 import java.math.BigInteger;
+import java.security.MessageDigest;
+import java.util.function.Supplier;
 
 public class LazyElement implements RLPElement {
     private RLPElement delegate;
@@ -9,14 +11,35 @@ public class LazyElement implements RLPElement {
 
     private LazyByteArray encoded;
 
-    LazyElement(RLPParser parser) {
+    private RLPList parent;
+
+    LazyElement(RLPParser parser, RLPList parent) {
         this.parser = parser;
         this.encoded = parser.getLazyByteArray();
+        this.parent = parent;
+    }
+
+    // null if not parsed yet
+    RLPElement getParsed() {
+        return delegate;
+    }
+
+    LazyByteArray getCachedEncoded() {
+        return encoded;
+    }
+
+    RLPParser getParser() {
+        return parser;
+    }
+
+    RLPList getParent() {
+        return parent;
     }
 
     private void parse() {
         if (delegate != null) return;
         delegate = parser.readLazy();
+        if (delegate instanceof RLPList) ((RLPList) delegate).setParent(parent);
         // release gc
     }
 
@@ -56,6 +79,15 @@ public class LazyElement implements RLPElement {
         return delegate.getEncoded();
     }
 
+    @Override
+    public byte[] hash(Supplier<? extends MessageDigest> digestFactory) {
+        if (delegate != null && delegate.isRLPList()) return delegate.hash(digestFactory);
+        MessageDigest digest = digestFactory.get();
+        digest.reset();
+        encoded.digestTo(digest);
+        return digest.digest();
+    }
+
     @Override
     public byte[] asBytes() {
         parse();
@@ -0,0 +1,65 @@
+package org.tdf.rlp;
+
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.RandomAccess;
+
+/**
+ * read-only list backed by an encoded rlp list, elements are decoded and memoized on first access.
+ * a lazy list is encoded as its source element while its decoded elements, which may be mutable pojos,
+ * encode to the same bytes as their source.
+ */
+final class LazyList<T> extends AbstractList<T> implements RandomAccess {
+    private static final Object ABSENT = new Object();
+
+    private final RLPElement element;
+    private final Container contentType;
+    private final RLPContext context;
+    private Object[] decoded;
+
+    LazyList(RLPElement element, Container contentType, RLPContext context) {
+        this.element = element;
+        this.contentType = contentType;
+        this.context = context;
+    }
+
+    @Override
+    public T get(int index) {
+        if (decoded == null) {
+            Object[] arr = new Object[element.size()];
+            Arrays.fill(arr, ABSENT);
+            decoded = arr;
+        }
+        Object o = decoded[index];
+        if (o == ABSENT) {
+            o = RLPCodec.decodeContainer(element.get(index), contentType, context);
+            decoded[index] = o;
+        }
+        return (T) o;
+    }
+
+    RLPElement encode(RLPContext context) {
+        if (decoded == null) return element;
+        List<RLPElement> elements = null;
+        for (int i = 0; i < decoded.length; i++) {
+            RLPElement source = element.get(i);
+            RLPElement el = decoded[i] == ABSENT ? source : RLPElement.readRLPTree(decoded[i], context);
+            if (elements == null && el != source && !Arrays.equals(el.getEncoded(), source.getEncoded())) {
+                // first modified element, the elements before it are unmodified
+                elements = new ArrayList<>(decoded.length);
+                for (int j = 0; j < i; j++) {
+                    elements.add(element.get(j));
+                }
+            }
+            if (elements != null) elements.add(el);
+        }
+        return elements == null ? element : new RLPList(elements);
+    }
+
+    @Override
+    public int size() {
+        return element.size();
+    }
+}
@@ -0,0 +1,24 @@
+package org.tdf.rlp;
+
+import java.util.Map;
+
+/**
+ * in-memory trie store, not thread safe
+ */
+public final class MemoryTrieStore implements TrieStore {
+    private final Map<byte[], byte[]> map = new ByteArrayMap<>();
+
+    @Override
+    public byte[] get(byte[] key) {
+        return map.get(key);
+    }
+
+    @Override
+    public void put(byte[] key, byte[] value) {
+        map.put(key, value);
+    }
+
+    public int size() {
+        return map.size();
+    }
+}
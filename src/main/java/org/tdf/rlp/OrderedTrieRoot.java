@@ -0,0 +1,64 @@
+package org.tdf.rlp;
+
+import lombok.NonNull;
+
+import java.util.List;
+
+/**
+ * streaming root of an ordered trie, e.g. the transactions or receipts root of a block, where the key of
+ * the i-th value is rlp(i) and the values are the encoded items. values are added in index order, e.g.
+ * <pre>
+ * OrderedTrieRoot root = new OrderedTrieRoot();
+ * for (byte[] tx : encodedTransactions) root.add(tx);
+ * byte[] hash = root.getRootHash();
+ * </pre>
+ * the trie is never stored, completed subtrees are hashed as soon as a key diverges from them,
+ * and values are hashed in place without being copied or re-encoded.
+ * <p>
+ * rlp(0) = 0x80 sorts after rlp(1) .. rlp(127), so the first value is held back until the 128-th value
+ * or the end. not thread safe, getRootHash() finishes the builder.
+ */
+public final class OrderedTrieRoot {
+    private static final int SINGLE_BYTE_KEYS = 0x80;
+
+    private final StackTrie trie = new StackTrie();
+    private int count;
+    private byte[] first;
+    private byte[] root;
+
+    public static byte[] of(@NonNull List<byte[]> values) {
+        OrderedTrieRoot root = new OrderedTrieRoot();
+        for (byte[] v : values) {
+            root.add(v);
+        }
+        return root.getRootHash();
+    }
+
+    public void add(@NonNull byte[] value) {
+        if (root != null) throw new RuntimeException("root is already computed");
+        int index = count++;
+        if (index == 0) {
+            first = value;
+            return;
+        }
+        if (index == SINGLE_BYTE_KEYS) insertFirst();
+        trie.insert(RLPCodec.encodeInt(index), value);
+    }
+
+    public int size() {
+        return count;
+    }
+
+    public byte[] getRootHash() {
+        if (root != null) return root;
+        insertFirst();
+        root = trie.hash();
+        return root;
+    }
+
+    private void insertFirst() {
+        if (first == null) return;
+        trie.insert(RLPCodec.encodeInt(0), first);
+        first = null;
+    }
+}
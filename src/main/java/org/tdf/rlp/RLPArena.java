@@ -0,0 +1,458 @@
+package org.tdf.rlp;
+
+import lombok.NonNull;
+
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+import static org.tdf.rlp.RLPConstants.*;
+
+/**
+ * off-heap storage of encoded rlp trees, e.g. caches of trie nodes or recent blocks.
+ * a stored tree costs one small {@link Handle} on heap, its encoding and the offsets of its top level children
+ * are kept in direct buffer segments, nested elements are located by their prefixes on access.
+ * <pre>
+ * RLPArena arena = new RLPArena();
+ * RLPArena.Handle node = arena.store(encoded);
+ * long nonce = node.get(0).asLong();
+ * node.release();
+ * </pre>
+ * scalars, hashes and pojos are read from the segments directly, {@link Handle#asRLPList()} and
+ * {@link Handle#getEncoded()} copy the tree to heap.
+ * <p>
+ * direct buffers cannot be freed explicitly, a segment whose trees are all released is reused by later trees,
+ * {@link #clear()} releases every tree at once. a released handle and its children throw on access.
+ * storing and releasing are synchronized, handles are read without locking.
+ * releasing a tree while it is being read is not supported, the caller should ensure reads of a tree
+ * happen before its release, handles are checked again after reading to detect most misuse on a best effort basis.
+ */
+public final class RLPArena {
+    public static final int DEFAULT_SEGMENT_SIZE = 1 << 20;
+
+    // top level child count followed by their offsets
+    private static final int INDEX_ENTRY_SIZE = Integer.BYTES;
+
+    private final int segmentSize;
+    private final List<Segment> segments = new ArrayList<>();
+    private final ArrayDeque<Segment> free = new ArrayDeque<>();
+    private Segment current;
+    private long used;
+    // handles created before clear() are released
+    private volatile int epoch;
+
+    public RLPArena() {
+        this(DEFAULT_SEGMENT_SIZE);
+    }
+
+    public RLPArena(int segmentSize) {
+        if (segmentSize <= 0) throw new RuntimeException("segment size should be positive");
+        this.segmentSize = segmentSize;
+    }
+
+    public Handle store(@NonNull RLPElement element) {
+        return store(element.getEncoded());
+    }
+
+    // copy a single encoded element into the arena, the encoding is validated
+    public synchronized Handle store(@NonNull byte[] encoded) {
+        if (encoded.length == 0 || validate(encoded, 0, encoded.length) != encoded.length)
+            throw new RuntimeException("invalid encoding");
+        boolean list = (encoded[0] & 0xff) >= OFFSET_SHORT_LIST;
+        int children = 0;
+        int header = list ? headerSize(encoded[0] & 0xff) : 0;
+        if (list) {
+            for (int p = header; p < encoded.length; p += sizeOf(encoded, p)) {
+                children++;
+            }
+        }
+        int size = encoded.length + (list ? INDEX_ENTRY_SIZE * (children + 1) : 0);
+        Segment s = allocate(size);
+        int offset = s.position;
+        ByteBuffer dst = s.buffer.duplicate();
+        dst.position(offset);
+        dst.put(encoded);
+        int index = -1;
+        if (list) {
+            index = dst.position();
+            dst.putInt(children);
+            for (int p = header; p < encoded.length; p += sizeOf(encoded, p)) {
+                dst.putInt(p);
+            }
+        }
+        s.position += size;
+        s.live += size;
+        used += size;
+        return new Handle(this, s, offset, encoded.length, index, size, null, epoch);
+    }
+
+    private Segment allocate(int size) {
+        if (current != null && current.buffer.capacity() - current.position >= size) return current;
+        if (size > segmentSize) {
+            // dedicated segment, dropped when released
+            Segment s = new Segment(ByteBuffer.allocateDirect(size));
+            segments.add(s);
+            return s;
+        }
+        if (current != null && current.live == 0) {
+            // every tree of the full segment is released
+            segments.remove(current);
+            current.position = 0;
+            free.add(current);
+        }
+        current = free.isEmpty() ? new Segment(ByteBuffer.allocateDirect(segmentSize)) : free.poll();
+        segments.add(current);
+        return current;
+    }
+
+    private synchronized void release(Handle h) {
+        if (h.released || h.epoch != epoch) return;
+        h.released = true;
+        Segment s = h.segment;
+        s.live -= h.allocated;
+        used -= h.allocated;
+        if (s.live > 0 || s == current) return;
+        segments.remove(s);
+        if (s.buffer.capacity() != segmentSize) return;
+        s.position = 0;
+        free.add(s);
+    }
+
+    public void release(@NonNull Iterable<? extends Handle> handles) {
+        for (Handle h : handles) {
+            h.release();
+        }
+    }
+
+    // release every stored tree, segments are kept for reuse
+    public synchronized void clear() {
+        epoch++;
+        for (Segment s : segments) {
+            s.position = 0;
+            s.live = 0;
+            if (s.buffer.capacity() == segmentSize) free.add(s);
+        }
+        segments.clear();
+        current = null;
+        used = 0;
+    }
+
+    // bytes of live trees including their indexes
+    public synchronized long getUsedBytes() {
+        return used;
+    }
+
+    // off-heap bytes held by the arena including free segments
+    public synchronized long getReservedBytes() {
+        long res = 0;
+        for (Segment s : segments) {
+            res += s.buffer.capacity();
+        }
+        for (Segment s : free) {
+            res += s.buffer.capacity();
+        }
+        return res;
+    }
+
+    private static int headerSize(int prefix) {
+        if (prefix < OFFSET_SHORT_ITEM) return 0;
+        if (prefix <= OFFSET_LONG_ITEM) return 1;
+        if (prefix < OFFSET_SHORT_LIST) return 1 + prefix - OFFSET_LONG_ITEM;
+        if (prefix <= OFFSET_LONG_LIST) return 1;
+        return 1 + prefix - OFFSET_LONG_LIST;
+    }
+
+    // size of the validated element at raw[pos]
+    private static int sizeOf(byte[] raw, int pos) {
+        int prefix = raw[pos] & 0xff;
+        int header = headerSize(prefix);
+        if (prefix < OFFSET_SHORT_ITEM) return 1;
+        if (prefix <= OFFSET_LONG_ITEM) return 1 + prefix - OFFSET_SHORT_ITEM;
+        if (prefix >= OFFSET_SHORT_LIST && prefix <= OFFSET_LONG_LIST) return 1 + prefix - OFFSET_SHORT_LIST;
+        int length = 0;
+        for (int i = 1; i < header; i++) {
+            length = (length << 8) | (raw[pos + i] & 0xff);
+        }
+        return header + length;
+    }
+
+    // end of the element at raw[pos], nested elements should fit in their lists
+    private static int validate(byte[] raw, int pos, int limit) {
+        int prefix = raw[pos] & 0xff;
+        int header = headerSize(prefix);
+        if (pos + header > limit || header > 5) throw new RuntimeException("invalid encoding");
+        long end = (long) pos + sizeOf(raw, pos);
+        if (end > limit || end < pos) throw new RuntimeException("invalid encoding");
+        if (prefix >= OFFSET_SHORT_LIST) {
+            for (int p = pos + header; p < end; ) {
+                p = validate(raw, p, (int) end);
+            }
+        }
+        return (int) end;
+    }
+
+    private static final class Segment {
+        private final ByteBuffer buffer;
+        private int position;
+        // allocated bytes of live trees
+        private int live;
+
+        private Segment(ByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+    }
+
+    /**
+     * read-only view of an element stored in the arena, either a stored tree or an element nested in it
+     */
+    public static final class Handle implements RLPElement {
+        private final RLPArena arena;
+        private final Segment segment;
+        private final int offset;
+        private final int length;
+        // offset of the child index, -1 for items and nested lists
+        private final int index;
+        private final int allocated;
+        // stored tree containing this element, null for the tree itself
+        private final Handle root;
+        private final int epoch;
+        private volatile boolean released;
+
+        private Handle(RLPArena arena, Segment segment, int offset, int length, int index, int allocated, Handle root, int epoch) {
+            this.arena = arena;
+            this.segment = segment;
+            this.offset = offset;
+            this.length = length;
+            this.index = index;
+            this.allocated = allocated;
+            this.root = root;
+            this.epoch = epoch;
+        }
+
+        // release the stored tree, only trees returned by store() are released
+        public void release() {
+            if (root != null) throw new RuntimeException("nested element cannot be released");
+            arena.release(this);
+        }
+
+        public boolean isReleased() {
+            Handle r = root == null ? this : root;
+            return r.released || r.epoch != arena.epoch;
+        }
+
+        private void checkLive() {
+            if (isReleased()) throw new RuntimeException("rlp element is released");
+        }
+
+        // read the segment, the tree should be live before and after reading,
+        // without a load fence the second check does not order the reads, so it only detects misuse
+        private <T> T read(Function<ByteBuffer, T> reader) {
+            checkLive();
+            T res;
+            try {
+                res = reader.apply(segment.buffer);
+            } catch (RuntimeException e) {
+                // garbage of a tree stored after release
+                checkLive();
+                throw e;
+            }
+            checkLive();
+            return res;
+        }
+
+        private int prefix() {
+            checkLive();
+            int prefix = segment.buffer.get(offset) & 0xff;
+            checkLive();
+            return prefix;
+        }
+
+        private int header() {
+            return headerSize(prefix());
+        }
+
+        @Override
+        public boolean isRLPList() {
+            return prefix() >= OFFSET_SHORT_LIST;
+        }
+
+        @Override
+        public boolean isRLPItem() {
+            return !isRLPList();
+        }
+
+        @Override
+        public RLPList asRLPList() {
+            if (!isRLPList()) throw new RuntimeException("not a rlp list");
+            return RLPElement.fromEncoded(getEncoded()).asRLPList();
+        }
+
+        @Override
+        public RLPItem asRLPItem() {
+            return RLPItem.fromBytes(asBytes());
+        }
+
+        @Override
+        public boolean isNull() {
+            return isRLPItem() && length == header();
+        }
+
+        @Override
+        public byte[] getEncoded() {
+            return read(buffer -> {
+                byte[] res = new byte[length];
+                ByteBuffer b = buffer.duplicate();
+                b.position(offset);
+                b.get(res);
+                return res;
+            });
+        }
+
+        @Override
+        public byte[] hash(Supplier<? extends MessageDigest> digestFactory) {
+            return read(buffer -> {
+                ByteBuffer b = buffer.duplicate();
+                b.limit(offset + length).position(offset);
+                MessageDigest digest = digestFactory.get();
+                digest.reset();
+                digest.update(b);
+                return digest.digest();
+            });
+        }
+
+        private int contentOffset() {
+            if (isRLPList()) throw new RuntimeException("not a rlp item");
+            return offset + header();
+        }
+
+        @Override
+        public byte[] asBytes() {
+            int start = contentOffset();
+            return read(buffer -> {
+                byte[] res = new byte[offset + length - start];
+                ByteBuffer b = buffer.duplicate();
+                b.position(start);
+                b.get(res);
+                return res;
+            });
+        }
+
+        @Override
+        public long asLong() {
+            int start = contentOffset();
+            int size = offset + length - start;
+            return read(b -> {
+                if (size > Long.BYTES || (size > 0 && b.get(start) == 0)) throw new RuntimeException("not a number");
+                long l = 0;
+                for (int i = start; i < start + size; i++) {
+                    l = (l << 8) | (b.get(i) & 0xff);
+                }
+                return l;
+            });
+        }
+
+        @Override
+        public byte asByte() {
+            if (Long.compareUnsigned(asLong(), 0xffL) > 0) throw new RuntimeException("invalid byte, overflow");
+            return (byte) asLong();
+        }
+
+        @Override
+        public short asShort() {
+            if (Long.compareUnsigned(asLong(), 0xffff) > 0) throw new RuntimeException("invalid short, overflow");
+            return (short) asLong();
+        }
+
+        @Override
+        public int asInt() {
+            if (Long.compareUnsigned(asLong(), 0xffffffffL) > 0) throw new RuntimeException("invalid int, overflow");
+            return (int) asLong();
+        }
+
+        @Override
+        public BigInteger asBigInteger() {
+            byte[] data = asBytes();
+            if (data.length == 0) return BigInteger.ZERO;
+            if (data[0] == 0) throw new RuntimeException("not a number");
+            return new BigInteger(1, data);
+        }
+
+        @Override
+        public String asString() {
+            return new String(asBytes(), StandardCharsets.UTF_8);
+        }
+
+        @Override
+        public boolean asBoolean() {
+            long l = asLong();
+            if (l > 1) throw new RuntimeException("not a boolean");
+            return l == 1;
+        }
+
+        private int payloadOffset() {
+            if (!isRLPList()) throw new RuntimeException("not a rlp list");
+            return offset + header();
+        }
+
+        private static int sizeAt(ByteBuffer b, int pos) {
+            int prefix = b.get(pos) & 0xff;
+            if (prefix < OFFSET_SHORT_ITEM) return 1;
+            if (prefix <= OFFSET_LONG_ITEM) return 1 + prefix - OFFSET_SHORT_ITEM;
+            if (prefix >= OFFSET_SHORT_LIST && prefix <= OFFSET_LONG_LIST) return 1 + prefix - OFFSET_SHORT_LIST;
+            int header = headerSize(prefix);
+            int length = 0;
+            for (int i = 1; i < header; i++) {
+                length = (length << 8) | (b.get(pos + i) & 0xff);
+            }
+            return header + length;
+        }
+
+        @Override
+        public int size() {
+            int start = payloadOffset();
+            return read(b -> {
+                if (index >= 0) return b.getInt(index);
+                int n = 0;
+                for (int p = start; p < offset + length; p += sizeAt(b, p)) {
+                    n++;
+                }
+                return n;
+            });
+        }
+
+        @Override
+        public RLPElement get(int i) {
+            int start = payloadOffset();
+            return read(b -> {
+                int p;
+                if (index >= 0) {
+                    if (i < 0 || i >= b.getInt(index)) throw new IndexOutOfBoundsException("index " + i);
+                    p = offset + b.getInt(index + INDEX_ENTRY_SIZE * (i + 1));
+                } else {
+                    p = start;
+                    for (int j = 0; j < i && p < offset + length; j++) {
+                        p += sizeAt(b, p);
+                    }
+                    if (i < 0 || p >= offset + length) throw new IndexOutOfBoundsException("index " + i);
+                }
+                return new Handle(arena, segment, p, sizeAt(b, p), -1, 0, root == null ? this : root, epoch);
+            });
+        }
+
+        @Override
+        public boolean add(RLPElement element) {
+            throw new RuntimeException("rlp element in arena is read-only");
+        }
+
+        @Override
+        public RLPElement set(int index, RLPElement element) {
+            throw new RuntimeException("rlp element in arena is read-only");
+        }
+    }
+}
@@ -2,20 +2,27 @@ package org.tdf.rlp;
 
 import lombok.NonNull;
 
-import java.lang.reflect.Array;
-import java.lang.reflect.Field;
 import java.lang.reflect.Modifier;
 import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
-import java.util.stream.Collectors;
-import java.util.stream.Stream;
+import java.util.concurrent.Executor;
 
 import static org.tdf.rlp.RLPConstants.*;
 import static org.tdf.rlp.RLPElement.readRLPTree;
 
 public final class RLPCodec {
+    // sets and maps with more elements than this are sorted in parallel
+    static final int PARALLEL_SORT_THRESHOLD = 1 << 13;
+    // minimum number of objects encoded or decoded by one task of the async batch api
+    static final int BATCH_SIZE = 64;
+    // largest type byte of typed envelopes
+    public static final int MAX_ENVELOPE_TYPE = 0x7f;
+
     public static <T> T decode(byte[] data, Class<T> clazz) {
         RLPElement element = RLPElement.fromEncoded(data);
         return decode(element, clazz);
@@ -31,78 +38,60 @@ public final class RLPCodec {
     }
 
     public static <T> T decode(RLPElement element, Class<T> clazz, RLPContext context) {
-        if (clazz == RLPElement.class) return (T) element;
-        if (clazz == RLPList.class) return (T) element.asRLPList();
-        if (clazz == RLPItem.class) return (T) element.asRLPItem();
-        RLPDecoder<T> decoder = RLPUtils.getAnnotatedRLPDecoder(clazz);
-        if (decoder != null) return decoder.decode(element);
-        decoder = context.getDecoder(clazz);
-        if (decoder != null) return decoder.decode(element);
-        if (clazz == boolean.class || clazz == Boolean.class) return (T) Boolean.valueOf(element.asBoolean());
-        if (clazz == Byte.class || clazz == byte.class) {
-            return (T) Byte.valueOf(element.asByte());
-        }
-        if (clazz == Short.class || clazz == short.class) {
-            return (T) Short.valueOf(element.asShort());
-        }
-        if (clazz == Integer.class || clazz == int.class) {
-            return (T) Integer.valueOf(element.asInt());
-        }
-        if (clazz == Long.class || clazz == long.class) {
-            return (T) Long.valueOf(element.asLong());
-        }
-        if (clazz == byte[].class) {
-            return (T) element.asBytes();
-        }
-        // String is non-null, since we cannot differ between null empty string and null
-        if (clazz == String.class) {
-            return (T) element.asString();
-        }
-        // big integer is non-null, since we cannot differ between zero and null
-        if (clazz == BigInteger.class) {
-            return (T) element.asBigInteger();
-        }
-        if (element.isNull()) return null;
-        if (clazz.isArray()) {
-            Class elementType = clazz.getComponentType();
-            Object res = Array.newInstance(clazz.getComponentType(), element.size());
-            for (int i = 0; i < element.size(); i++) {
-                Array.set(res, i, decode(element.get(i), elementType));
-            }
-            return (T) res;
-        }
-        // cannot determine generic type at runtime
-        if (
-                RLPUtils.isContainer(clazz)
-        ) {
-            return (T) decodeContainer(element, Container.fromClass(clazz), context);
-        }
-        T o = RLPUtils.newInstance(clazz);
-        List<Field> fields = RLPUtils.getRLPFields(clazz);
-        if (fields.size() == 0) throw new RuntimeException("no encodable field of " + clazz.getName() + " found");
-        List<Container> containers = RLPUtils.getRLPContainers(clazz);
-        for (int i = 0; i < fields.size(); i++) {
-            RLPElement el = element.get(i);
-            Field f = fields.get(i);
-            Container container = containers.get(i);
-
-            RLPDecoder fieldDecoder = RLPUtils.getAnnotatedRLPDecoder(f);
-            if (fieldDecoder != null) {
-                try {
-                    f.set(o, fieldDecoder.decode(el));
-                } catch (Exception e) {
-                    throw new RuntimeException(e);
-                }
-                continue;
-            }
+        return (T) TypeCodec.get(clazz).decode(element, context);
+    }
 
-            try {
-                f.set(o, decodeContainer(el, container, context));
-            } catch (Exception e) {
-                throw new RuntimeException(e);
-            }
-        }
-        return o;
+    public static <T> T decodeTyped(byte[] data, Class<T> clazz) {
+        return decodeTyped(data, clazz, RLPContext.EMPTY);
+    }
+
+    /**
+     * decode a typed envelope, a type byte in [0, 0x7f] followed by the encoded body, e.g. eip-2718 transactions.
+     * the body is decoded by the decoder registered for the type by {@link RLPContext#withTypedDecoder(int, RLPDecoder)}
+     * over a lazy view of data without copying, data starting with a list prefix is a legacy payload decoded as clazz.
+     */
+    public static <T> T decodeTyped(@NonNull byte[] data, Class<T> clazz, RLPContext context) {
+        return decodeTyped(data, 0, data.length, clazz, context);
+    }
+
+    public static <T> T decodeTyped(RLPElement element, Class<T> clazz) {
+        return decodeTyped(element, clazz, RLPContext.EMPTY);
+    }
+
+    // element is either a legacy list or an item wrapping the envelope, e.g. transactions in a block body
+    public static <T> T decodeTyped(@NonNull RLPElement element, Class<T> clazz, RLPContext context) {
+        if (element.isRLPList()) return decode(element, clazz, context);
+        LazyByteArray data = element.asRLPItem().getData();
+        return decodeTyped(data.array(), data.offset(), data.offset() + data.size(), clazz, context);
+    }
+
+    private static <T> T decodeTyped(byte[] data, int offset, int limit, Class<T> clazz, RLPContext context) {
+        if (limit <= offset) throw new RuntimeException("empty envelope");
+        int type = Byte.toUnsignedInt(data[offset]);
+        if (type >= OFFSET_SHORT_LIST) return decode(RLPParser.fromEncoded(data, offset, limit, true), clazz, context);
+        if (type > MAX_ENVELOPE_TYPE) throw new RuntimeException("invalid envelope type " + type);
+        RLPDecoder<?> decoder = context.getTypedDecoder(type);
+        if (decoder == null) throw new RuntimeException("decoder of envelope type " + type + " not found");
+        Object o = decoder.decode(RLPParser.fromEncoded(data, offset + 1, limit, true));
+        if (o != null && !clazz.isInstance(o))
+            throw new RuntimeException("envelope type " + type + " is not decoded as " + clazz.getName());
+        return (T) o;
+    }
+
+    public static byte[] encodeTyped(int type, Object body) {
+        return encodeTyped(type, body, RLPContext.EMPTY);
+    }
+
+    // type byte followed by the encoding of body, written into a single array
+    public static byte[] encodeTyped(int type, Object body, RLPContext context) {
+        if (type < 0 || type > MAX_ENVELOPE_TYPE) throw new RuntimeException("invalid envelope type " + type);
+        RLPElement element = readRLPTree(body, context);
+        RLPWriter writer = new RLPWriter();
+        int size = writer.measure(element);
+        byte[] res = new byte[size + 1];
+        res[0] = (byte) type;
+        writer.write(element, ByteBuffer.wrap(res, 1, size));
+        return res;
     }
 
     // rlp primitives encoding/decoding
@@ -158,6 +147,188 @@ public final class RLPCodec {
         return readRLPTree(o).getEncoded();
     }
 
+    /**
+     * encode o into dst from its position, dst is not modified if its remaining space is not enough
+     *
+     * @return number of bytes written, or the negated encoded size if it does not fit in dst
+     */
+    public static int encode(Object o, ByteBuffer dst) {
+        return encode(o, RLPContext.EMPTY, dst);
+    }
+
+    public static int encode(Object o, RLPContext context, @NonNull ByteBuffer dst) {
+        RLPElement element = readRLPTree(o, context);
+        RLPWriter writer = new RLPWriter();
+        int size = writer.measure(element);
+        if (size > dst.remaining()) return -size;
+        writer.write(element, dst);
+        return size;
+    }
+
+    /**
+     * encode o as buffers for {@link java.nio.channels.GatheringByteChannel#write(ByteBuffer[])},
+     * unmodified parts of decoded elements are slices of the source arrays, only headers of modified lists
+     * and small leaves are copied, so the cost is proportional to the modification.
+     * the buffers share content with the source arrays which should not be modified before the buffers are written.
+     */
+    public static ByteBuffer[] encodeGathering(Object o) {
+        return encodeGathering(o, RLPContext.EMPTY);
+    }
+
+    public static ByteBuffer[] encodeGathering(Object o, RLPContext context) {
+        return new RLPWriter().gather(readRLPTree(o, context));
+    }
+
+    /**
+     * encode o into a buffer acquired from pool, the returned buffer is flipped and ready to be written to channels,
+     * use {@link ByteBuffer#duplicate()} to write the same encoding to many channels, release it to the pool after all.
+     */
+    public static ByteBuffer encode(Object o, DirectBufferPool pool) {
+        return encode(o, RLPContext.EMPTY, pool);
+    }
+
+    public static ByteBuffer encode(Object o, RLPContext context, @NonNull DirectBufferPool pool) {
+        RLPElement element = readRLPTree(o, context);
+        RLPWriter writer = new RLPWriter();
+        ByteBuffer buf = pool.acquire(writer.measure(element));
+        writer.write(element, buf);
+        buf.flip();
+        return buf;
+    }
+
+    /**
+     * hash of the encoding of o, the encoding is fed into digest without materializing it
+     */
+    public static byte[] hash(Object o, MessageDigest digest) {
+        return hash(o, RLPContext.EMPTY, digest);
+    }
+
+    public static byte[] hash(Object o, RLPContext context, @NonNull MessageDigest digest) {
+        digest.reset();
+        new RLPWriter().digest(readRLPTree(o, context), digest);
+        return digest.digest();
+    }
+
+    public static byte[] keccak256(Object o) {
+        return hash(o, Keccak256.PER_THREAD.get());
+    }
+
+    public static byte[] keccak256(Object o, RLPContext context) {
+        return hash(o, context, Keccak256.PER_THREAD.get());
+    }
+
+    // encode the fields of o selected by mask
+    public static byte[] encode(Object o, FieldMask mask) {
+        return encode(o, mask, RLPContext.EMPTY);
+    }
+
+    public static byte[] encode(Object o, @NonNull FieldMask mask, RLPContext context) {
+        return mask.encode(o, context).getEncoded();
+    }
+
+    // keccak-256 of the fields of o selected by mask, e.g. signing hash
+    public static byte[] keccak256(Object o, FieldMask mask) {
+        return keccak256(o, mask, RLPContext.EMPTY);
+    }
+
+    public static byte[] keccak256(Object o, @NonNull FieldMask mask, RLPContext context) {
+        return hash(mask.encode(o, context), Keccak256.PER_THREAD.get());
+    }
+
+    // batch encoding/decoding, codecs are resolved once per class
+    public static List<byte[]> encodeAll(List<?> objects) {
+        return encodeAll(objects, RLPContext.EMPTY);
+    }
+
+    public static List<byte[]> encodeAll(@NonNull List<?> objects, RLPContext context) {
+        byte[][] res = new byte[objects.size()][];
+        encodeRange(objects, context, res, 0, res.length);
+        return Arrays.asList(res);
+    }
+
+    public static <T> List<T> decodeAll(List<byte[]> encoded, Class<T> clazz) {
+        return decodeAll(encoded, clazz, RLPContext.EMPTY);
+    }
+
+    public static <T> List<T> decodeAll(@NonNull List<byte[]> encoded, Class<T> clazz, RLPContext context) {
+        Object[] res = new Object[encoded.size()];
+        decodeRange(encoded, TypeCodec.get(clazz), context, res, 0, res.length);
+        return (List<T>) Arrays.asList(res);
+    }
+
+    /**
+     * encode objects in batches on executor, e.g. a ForkJoinPool or a virtual thread per task executor,
+     * the future completes exceptionally if any object fails to encode
+     */
+    public static CompletableFuture<List<byte[]>> encodeAllAsync(List<?> objects, Executor executor) {
+        return encodeAllAsync(objects, RLPContext.EMPTY, executor);
+    }
+
+    public static CompletableFuture<List<byte[]>> encodeAllAsync(
+            @NonNull List<?> objects, RLPContext context, @NonNull Executor executor
+    ) {
+        byte[][] res = new byte[objects.size()][];
+        return runBatches(res.length, executor, (from, to) -> encodeRange(objects, context, res, from, to))
+                .thenApply(x -> Arrays.asList(res));
+    }
+
+    public static <T> CompletableFuture<List<T>> decodeAllAsync(List<byte[]> encoded, Class<T> clazz, Executor executor) {
+        return decodeAllAsync(encoded, clazz, RLPContext.EMPTY, executor);
+    }
+
+    public static <T> CompletableFuture<List<T>> decodeAllAsync(
+            @NonNull List<byte[]> encoded, Class<T> clazz, RLPContext context, @NonNull Executor executor
+    ) {
+        TypeCodec codec = TypeCodec.get(clazz);
+        Object[] res = new Object[encoded.size()];
+        return runBatches(res.length, executor, (from, to) -> decodeRange(encoded, codec, context, res, from, to))
+                .thenApply(x -> (List<T>) Arrays.asList(res));
+    }
+
+    private static void encodeRange(List<?> objects, RLPContext context, byte[][] res, int from, int to) {
+        Class<?> last = null;
+        TypeCodec codec = null;
+        for (int i = from; i < to; i++) {
+            Object o = objects.get(i);
+            if (o == null || o instanceof RLPElement) {
+                res[i] = readRLPTree(o, context).getEncoded();
+                continue;
+            }
+            if (o.getClass() != last) {
+                last = o.getClass();
+                codec = TypeCodec.get(last);
+            }
+            res[i] = codec.encode(o, context).getEncoded();
+        }
+    }
+
+    private static void decodeRange(
+            List<byte[]> encoded, TypeCodec codec, RLPContext context, Object[] res, int from, int to
+    ) {
+        for (int i = from; i < to; i++) {
+            res[i] = codec.decode(RLPElement.fromEncoded(encoded.get(i)), context);
+        }
+    }
+
+    private interface Range {
+        void run(int from, int to);
+    }
+
+    // split [0, n) into batches of at least BATCH_SIZE, a few batches per processor for load balancing
+    private static CompletableFuture<Void> runBatches(int n, Executor executor, Range range) {
+        int batches = Math.max(1, Math.min(
+                Runtime.getRuntime().availableProcessors() * 4,
+                (n + BATCH_SIZE - 1) / BATCH_SIZE
+        ));
+        CompletableFuture[] futures = new CompletableFuture[batches];
+        for (int i = 0; i < batches; i++) {
+            int from = (int) ((long) n * i / batches);
+            int to = (int) ((long) n * (i + 1) / batches);
+            futures[i] = CompletableFuture.runAsync(() -> range.run(from, to), executor);
+        }
+        return CompletableFuture.allOf(futures);
+    }
+
     // rlp list encode
     public static byte[] encodeBytes(byte[] srcData) {
         // [0x80]
@@ -247,23 +418,89 @@ public final class RLPCodec {
     }
 
     static RLPElement encodeCollection(Collection col, Comparator contentOrdering, RLPContext context) {
-        Stream<Object> s = contentOrdering == null ? col.stream() : col.stream().sorted(contentOrdering);
-        return new RLPList(s.map(x -> RLPElement.readRLPTree(x, context))
-                .collect(Collectors.toList()));
+        if (contentOrdering instanceof RLPEncoding.Canonical) {
+            List<RLPElement> elements = new ArrayList<>(col.size());
+            for (Object o : col) {
+                elements.add(readRLPTree(o, context));
+            }
+            Encoded[] sorted = Encoded.sort(elements);
+            for (int i = 0; i < sorted.length; i++) {
+                elements.set(i, sorted[i].element);
+            }
+            return new RLPList(elements);
+        }
+        Collection s = col;
+        if (contentOrdering != null && !RLPUtils.isSortedBy(col, contentOrdering)) {
+            Object[] arr = col.toArray();
+            sort(arr, contentOrdering);
+            s = Arrays.asList(arr);
+        }
+        List<RLPElement> elements = new ArrayList<>(s.size());
+        for (Object o : s) {
+            elements.add(readRLPTree(o, context));
+        }
+        return new RLPList(elements);
     }
 
     static RLPElement encodeMap(Map m, Comparator keyOrdering, RLPContext context) {
         RLPList list = RLPList.createEmpty(m.size() * 2);
-        Stream<Map.Entry> entires = m.entrySet().stream();
-        if (keyOrdering != null) entires =
-                entires.sorted((x, y) -> keyOrdering.compare(x.getKey(), y.getKey()));
-        entires.forEach(x -> {
+        if (keyOrdering instanceof RLPEncoding.Canonical) {
+            List<RLPElement> keys = new ArrayList<>(m.size());
+            List<Object> values = new ArrayList<>(m.size());
+            for (Object o : m.entrySet()) {
+                Map.Entry entry = (Map.Entry) o;
+                keys.add(readRLPTree(entry.getKey(), context));
+                values.add(entry.getValue());
+            }
+            for (Encoded e : Encoded.sort(keys)) {
+                list.add(e.element);
+                list.add(readRLPTree(values.get(e.index), context));
+            }
+            return list;
+        }
+        Collection<Map.Entry> entries = m.entrySet();
+        if (keyOrdering != null && !RLPUtils.isSortedBy(m, keyOrdering)) {
+            Map.Entry[] arr = entries.toArray(new Map.Entry[0]);
+            sort(arr, (x, y) -> keyOrdering.compare(x.getKey(), y.getKey()));
+            entries = Arrays.asList(arr);
+        }
+        for (Map.Entry x : entries) {
             list.add(readRLPTree(x.getKey(), context));
             list.add(readRLPTree(x.getValue(), context));
-        });
+        }
         return list;
     }
 
+    private static <T> void sort(T[] arr, Comparator<? super T> comparator) {
+        if (arr.length >= PARALLEL_SORT_THRESHOLD) {
+            Arrays.parallelSort(arr, comparator);
+            return;
+        }
+        Arrays.sort(arr, comparator);
+    }
+
+    // an element with its encoding computed once, for canonical ordering
+    private static final class Encoded {
+        private final RLPElement element;
+        private final byte[] encoded;
+        private final int index;
+
+        private Encoded(RLPElement element, int index) {
+            this.element = element;
+            this.encoded = element.getEncoded();
+            this.index = index;
+        }
+
+        private static Encoded[] sort(List<RLPElement> elements) {
+            Encoded[] res = new Encoded[elements.size()];
+            for (int i = 0; i < res.length; i++) {
+                res[i] = new Encoded(elements.get(i), i);
+            }
+            RLPCodec.sort(res, (x, y) -> RLPUtils.compareBytes(x.encoded, y.encoded));
+            return res;
+        }
+    }
+
     public static Object decodeContainer(byte[] encoded, Container container) {
         return decodeContainer(encoded, container, RLPContext.EMPTY);
     }
@@ -283,6 +520,11 @@ public final class RLPCodec {
                 return decode(element, container.asRaw(), context);
             case COLLECTION: {
                 CollectionContainer collectionContainer = container.asCollection();
+                if ((collectionContainer.lazy || context.isLazyList()) &&
+                        (collectionContainer.collectionType == List.class || collectionContainer.collectionType == Collection.class)) {
+                    if (element.isNull()) return Collections.emptyList();
+                    return new LazyList<>(RLPRetention.retain(element, context), collectionContainer.contentType, context);
+                }
                 Collection res = (Collection) RLPUtils.newInstance(getDefaultImpl(collectionContainer.collectionType));
                 if (element.isNull()) return res;
                 for (int i = 0; i < element.size(); i++) {
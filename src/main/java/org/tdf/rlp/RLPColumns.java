@@ -0,0 +1,216 @@
+package org.tdf.rlp;
+
+import lombok.NonNull;
+
+import java.lang.reflect.Field;
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.tdf.rlp.RLPConstants.*;
+
+/**
+ * columnar view of selected fields of many encoded pojo records, e.g.
+ * <pre>
+ * RLPColumns columns = RLPColumns.decode(records, PoolData.class, "chainId", "r");
+ * long[] chainIds = columns.getLongs("chainId");
+ * long[] r = columns.getUint256("r");
+ * </pre>
+ * records are scanned by prefixes only, unselected fields and nested lists are skipped without parsing
+ * and no pojo or RLPElement is created. the offsets of selected items are kept, columns are materialized by getters.
+ * <p>
+ * selected fields should be numbers, byte[], String or BigInteger without custom decoders.
+ */
+public final class RLPColumns {
+    private final List<byte[]> records;
+    private final Map<String, Integer> columns;
+    // per column, offset and length of the item content in each record
+    private final int[][] offsets;
+    private final int[][] lengths;
+
+    private RLPColumns(List<byte[]> records, Map<String, Integer> columns, int[][] offsets, int[][] lengths) {
+        this.records = records;
+        this.columns = columns;
+        this.offsets = offsets;
+        this.lengths = lengths;
+    }
+
+    public static RLPColumns decode(@NonNull List<byte[]> records, @NonNull Class<?> clazz, @NonNull String... fields) {
+        List<Field> all = RLPUtils.getRLPFields(clazz);
+        if (all.isEmpty()) throw new RuntimeException("no encodable field of " + clazz.getName() + " found");
+        // column of each field index, -1 for skipped fields
+        int[] columnOf = new int[all.size()];
+        Arrays.fill(columnOf, -1);
+        Map<String, Integer> columns = new HashMap<>();
+        int last = -1;
+        for (int c = 0; c < fields.length; c++) {
+            int index = -1;
+            for (int i = 0; i < all.size(); i++) {
+                if (all.get(i).getName().equals(fields[c])) index = i;
+            }
+            if (index < 0) throw new RuntimeException("field " + fields[c] + " of " + clazz.getName() + " not found");
+            Field f = all.get(index);
+            if (!isScalar(f.getType()) || RLPUtils.getAnnotatedRLPDecoder(f) != null)
+                throw new RuntimeException("field " + fields[c] + " is not a scalar field");
+            if (columns.put(fields[c], c) != null) throw new RuntimeException("duplicated field " + fields[c]);
+            columnOf[index] = c;
+            last = Math.max(last, index);
+        }
+
+        int n = records.size();
+        int[][] offsets = new int[fields.length][n];
+        int[][] lengths = new int[fields.length][n];
+        Header h = new Header();
+        for (int r = 0; r < n; r++) {
+            byte[] raw = records.get(r);
+            if (raw.length == 0) throw new RuntimeException("record " + r + " is empty");
+            h.read(raw, 0, raw.length);
+            if (!h.list || h.offset + h.length != raw.length) throw new RuntimeException("record " + r + " is not a rlp list");
+            int limit = raw.length;
+            int position = h.offset;
+            for (int i = 0; i <= last; i++) {
+                if (position >= limit)
+                    throw new RuntimeException("record " + r + " has less than " + (last + 1) + " fields");
+                h.read(raw, position, limit);
+                int c = columnOf[i];
+                if (c >= 0) {
+                    if (h.list) throw new RuntimeException("field " + fields[c] + " of record " + r + " is not a rlp item");
+                    offsets[c][r] = h.offset;
+                    lengths[c][r] = h.length;
+                }
+                position = h.offset + h.length;
+            }
+        }
+        return new RLPColumns(records, columns, offsets, lengths);
+    }
+
+    private static boolean isScalar(Class<?> type) {
+        return type.isPrimitive() || type == Boolean.class || type == Byte.class || type == Short.class
+                || type == Integer.class || type == Long.class || type == BigInteger.class
+                || type == byte[].class || type == String.class;
+    }
+
+    public int size() {
+        return records.size();
+    }
+
+    private int column(String field) {
+        Integer c = columns.get(field);
+        if (c == null) throw new RuntimeException("field " + field + " is not decoded");
+        return c;
+    }
+
+    // unsigned numbers up to 8 bytes, e.g. long, int, short, byte and boolean fields
+    public long[] getLongs(String field) {
+        int c = column(field);
+        long[] res = new long[size()];
+        for (int r = 0; r < res.length; r++) {
+            byte[] raw = records.get(r);
+            int offset = offsets[c][r];
+            int length = lengths[c][r];
+            if (length > Long.BYTES || (length > 0 && raw[offset] == 0)) throw new RuntimeException("not a number");
+            long l = 0;
+            for (int i = 0; i < length; i++) {
+                l = (l << 8) | (raw[offset + i] & 0xff);
+            }
+            res[r] = l;
+        }
+        return res;
+    }
+
+    public byte[][] getBytes(String field) {
+        int c = column(field);
+        byte[][] res = new byte[size()][];
+        for (int r = 0; r < res.length; r++) {
+            res[r] = Arrays.copyOfRange(records.get(r), offsets[c][r], offsets[c][r] + lengths[c][r]);
+        }
+        return res;
+    }
+
+    public String[] getStrings(String field) {
+        int c = column(field);
+        String[] res = new String[size()];
+        for (int r = 0; r < res.length; r++) {
+            res[r] = new String(records.get(r), offsets[c][r], lengths[c][r], StandardCharsets.UTF_8);
+        }
+        return res;
+    }
+
+    public BigInteger[] getBigIntegers(String field) {
+        int c = column(field);
+        BigInteger[] res = new BigInteger[size()];
+        for (int r = 0; r < res.length; r++) {
+            int length = lengths[c][r];
+            if (length == 0) {
+                res[r] = BigInteger.ZERO;
+                continue;
+            }
+            byte[] raw = records.get(r);
+            if (raw[offsets[c][r]] == 0) throw new RuntimeException("not a number");
+            res[r] = new BigInteger(1, Arrays.copyOfRange(raw, offsets[c][r], offsets[c][r] + length));
+        }
+        return res;
+    }
+
+    /**
+     * fixed-width unsigned 256-bit numbers, four big-endian 64-bit words per record,
+     * the value of record r is words [4r, 4r + 4), the most significant word first
+     */
+    public long[] getUint256(String field) {
+        int c = column(field);
+        long[] res = new long[size() * 4];
+        for (int r = 0; r < size(); r++) {
+            byte[] raw = records.get(r);
+            int offset = offsets[c][r];
+            int length = lengths[c][r];
+            if (length > 32 || (length > 0 && raw[offset] == 0)) throw new RuntimeException("not a uint256");
+            // i-th byte from the least significant
+            for (int i = 0; i < length; i++) {
+                res[r * 4 + 3 - i / Long.BYTES] |= (raw[offset + length - 1 - i] & 0xffL) << (i % Long.BYTES * 8);
+            }
+        }
+        return res;
+    }
+
+    // prefix of an element
+    private static final class Header {
+        private boolean list;
+        // offset and length of the content
+        private int offset;
+        private int length;
+
+        private void read(byte[] raw, int position, int limit) {
+            int prefix = raw[position] & 0xff;
+            list = prefix >= OFFSET_SHORT_LIST;
+            if (prefix < OFFSET_SHORT_ITEM) {
+                offset = position;
+                length = 1;
+            } else if (prefix <= OFFSET_LONG_ITEM) {
+                offset = position + 1;
+                length = prefix - OFFSET_SHORT_ITEM;
+            } else if (prefix < OFFSET_SHORT_LIST) {
+                readLength(raw, position, prefix - OFFSET_LONG_ITEM, limit);
+            } else if (prefix <= OFFSET_LONG_LIST) {
+                offset = position + 1;
+                length = prefix - OFFSET_SHORT_LIST;
+            } else {
+                readLength(raw, position, prefix - OFFSET_LONG_LIST, limit);
+            }
+            if ((long) offset + length > limit) throw new RuntimeException("read overflow");
+        }
+
+        private void readLength(byte[] raw, int position, int lenlen, int limit) {
+            if (lenlen > 4 || position + 1 + lenlen > limit) throw new RuntimeException("invalid encoding");
+            long l = 0;
+            for (int i = 0; i < lenlen; i++) {
+                l = (l << 8) | (raw[position + 1 + i] & 0xff);
+            }
+            if (l > Integer.MAX_VALUE) throw new RuntimeException("invalid encoding");
+            offset = position + 1 + lenlen;
+            length = (int) l;
+        }
+    }
+}
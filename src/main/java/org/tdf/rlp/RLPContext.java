@@ -2,6 +2,10 @@ package org.tdf.rlp;
 
 import java.util.Collections;
 
+/**
+ * options added after the first release are default methods, so other implementations keep compiling and linking,
+ * their getters answer as {@link #EMPTY} and enabling them throws unless overridden
+ */
 public interface RLPContext {
     RLPContext EMPTY = new RLPContextImpl(Collections.emptyMap(), Collections.emptyMap());
 
@@ -13,7 +17,74 @@ public interface RLPContext {
 
     <T> RLPContext withDecoder(Class<T> clazz, RLPDecoder<? extends T> decoder);
 
+    /**
+     * @param type    type byte of typed envelopes, e.g. eip-2718 transaction type, in [0, 0x7f]
+     * @param decoder decoder of the body following the type byte
+     * @see RLPCodec#decodeTyped(byte[], Class, RLPContext)
+     */
+    default RLPContext withTypedDecoder(int type, RLPDecoder<?> decoder) {
+        throw new UnsupportedOperationException("typed decoders are not supported by " + getClass().getName());
+    }
+
     <T> RLPEncoder<T> getEncoder(Class<T> clazz);
 
     <T> RLPDecoder<T> getDecoder(Class<T> clazz);
+
+    default RLPDecoder<?> getTypedDecoder(int type) {
+        return null;
+    }
+
+    /**
+     * @param dedupCache cache shared by decoding with the returned context, null to disable deduplication
+     * @return context which deduplicates decoded byte[] and String values
+     */
+    default RLPContext withDedupCache(DedupCache dedupCache) {
+        if (dedupCache == null) return this;
+        throw new UnsupportedOperationException("deduplication is not supported by " + getClass().getName());
+    }
+
+    default DedupCache getDedupCache() {
+        return null;
+    }
+
+    /**
+     * @param lazyList whether List and Collection typed values are decoded as read-only lists,
+     *                 elements of which are decoded on first access
+     */
+    default RLPContext withLazyList(boolean lazyList) {
+        if (!lazyList) return this;
+        throw new UnsupportedOperationException("lazy lists are not supported by " + getClass().getName());
+    }
+
+    default boolean isLazyList() {
+        return false;
+    }
+
+    /**
+     * @param sharedSubtrees whether an object appearing more than once in the encoded graph is encoded once
+     *                       per encoding call, occurrences are matched by identity and the encoding is unchanged
+     */
+    default RLPContext withSharedSubtrees(boolean sharedSubtrees) {
+        if (!sharedSubtrees) return this;
+        throw new UnsupportedOperationException("shared subtrees are not supported by " + getClass().getName());
+    }
+
+    default boolean isSharedSubtrees() {
+        return false;
+    }
+
+    /**
+     * @param detachRatio elements kept by decoded objects, e.g. RLPElement, source and opaque fields or lazy lists,
+     *                    are detached from the input if it is more than detachRatio times larger than their encoding,
+     *                    0 to disable
+     * @see RLPElement#detach()
+     */
+    default RLPContext withDetachRatio(int detachRatio) {
+        if (detachRatio == 0) return this;
+        throw new UnsupportedOperationException("detaching is not supported by " + getClass().getName());
+    }
+
+    default int getDetachRatio() {
+        return 0;
+    }
 }
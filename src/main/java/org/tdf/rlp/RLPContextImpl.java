@@ -4,6 +4,7 @@ import lombok.AllArgsConstructor;
 import lombok.NoArgsConstructor;
 
 import java.util.HashMap;
+import java.util.IdentityHashMap;
 import java.util.Map;
 
 @NoArgsConstructor
@@ -11,21 +12,69 @@ import java.util.Map;
 class RLPContextImpl implements RLPContext {
     private Map<Class, RLPEncoder> encoders = new HashMap<>();
     private Map<Class, RLPDecoder> decoders = new HashMap<>();
+    // indexed by envelope type, null if none registered
+    private RLPDecoder[] typedDecoders;
+    private DedupCache dedupCache;
+    private boolean lazyList;
+    private boolean sharedSubtrees;
+    private int detachRatio;
+    // elements of objects encoded in the current encoding call, by identity
+    private Map<Object, RLPElement> subtrees;
+
+    RLPContextImpl(Map<Class, RLPEncoder> encoders, Map<Class, RLPDecoder> decoders) {
+        this.encoders = encoders;
+        this.decoders = decoders;
+    }
 
     @Override
     public <T> RLPContext withEncoder(Class<T> clazz, RLPEncoder<? super T> encoder) {
-        RLPContextImpl ret = new RLPContextImpl(new HashMap<>(encoders), decoders);
+        RLPContextImpl ret = new RLPContextImpl(new HashMap<>(encoders), decoders, typedDecoders, dedupCache, lazyList, sharedSubtrees, detachRatio, null);
         ret.encoders.put(clazz, encoder);
         return ret;
     }
 
     @Override
     public <T> RLPContext withDecoder(Class<T> clazz, RLPDecoder<? extends T> decoder) {
-        RLPContextImpl ret = new RLPContextImpl(encoders, new HashMap<>(decoders));
+        RLPContextImpl ret = new RLPContextImpl(encoders, new HashMap<>(decoders), typedDecoders, dedupCache, lazyList, sharedSubtrees, detachRatio, null);
         ret.decoders.put(clazz, decoder);
         return ret;
     }
 
+    @Override
+    public RLPContext withTypedDecoder(int type, RLPDecoder<?> decoder) {
+        if (type < 0 || type > RLPCodec.MAX_ENVELOPE_TYPE) throw new RuntimeException("invalid envelope type " + type);
+        RLPDecoder[] copied = typedDecoders == null ?
+                new RLPDecoder[RLPCodec.MAX_ENVELOPE_TYPE + 1] : typedDecoders.clone();
+        copied[type] = decoder;
+        return new RLPContextImpl(encoders, decoders, copied, dedupCache, lazyList, sharedSubtrees, detachRatio, null);
+    }
+
+    @Override
+    public RLPContext withDedupCache(DedupCache dedupCache) {
+        return new RLPContextImpl(encoders, decoders, typedDecoders, dedupCache, lazyList, sharedSubtrees, detachRatio, null);
+    }
+
+    @Override
+    public RLPContext withLazyList(boolean lazyList) {
+        return new RLPContextImpl(encoders, decoders, typedDecoders, dedupCache, lazyList, sharedSubtrees, detachRatio, null);
+    }
+
+    @Override
+    public RLPContext withSharedSubtrees(boolean sharedSubtrees) {
+        return new RLPContextImpl(encoders, decoders, typedDecoders, dedupCache, lazyList, sharedSubtrees, detachRatio, null);
+    }
+
+    @Override
+    public RLPContext withDetachRatio(int detachRatio) {
+        if (detachRatio < 0) throw new RuntimeException("detach ratio should not be negative");
+        return new RLPContextImpl(encoders, decoders, typedDecoders, dedupCache, lazyList, sharedSubtrees, detachRatio, null);
+    }
+
+    // context for a single encoding call which memoizes encoded objects
+    RLPContextImpl withSubtrees() {
+        return new RLPContextImpl(encoders, decoders, typedDecoders, dedupCache, lazyList, sharedSubtrees, detachRatio, new IdentityHashMap<>());
+    }
+
     @Override
     public <T> RLPEncoder<T> getEncoder(Class<T> clazz) {
         return encoders.get(clazz);
@@ -35,4 +84,34 @@ class RLPContextImpl implements RLPContext {
     public <T> RLPDecoder<T> getDecoder(Class<T> clazz) {
         return decoders.get(clazz);
     }
+
+    @Override
+    public RLPDecoder<?> getTypedDecoder(int type) {
+        if (typedDecoders == null || type < 0 || type >= typedDecoders.length) return null;
+        return typedDecoders[type];
+    }
+
+    @Override
+    public DedupCache getDedupCache() {
+        return dedupCache;
+    }
+
+    @Override
+    public boolean isLazyList() {
+        return lazyList;
+    }
+
+    @Override
+    public boolean isSharedSubtrees() {
+        return sharedSubtrees;
+    }
+
+    @Override
+    public int getDetachRatio() {
+        return detachRatio;
+    }
+
+    Map<Object, RLPElement> getSubtrees() {
+        return subtrees;
+    }
 }
@@ -11,4 +11,7 @@ public @interface RLPDecoding {
     Class<? extends RLPDecoder> value() default RLPDecoder.None.class;
 
     Class<?> as() default Void.class;
+
+    // decode List typed field as a read-only list, elements are decoded on first access
+    boolean lazy() default false;
 }
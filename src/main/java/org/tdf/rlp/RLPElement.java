@@ -1,13 +1,10 @@
 package org.tdf.rlp;
 
-import java.lang.reflect.Array;
-import java.lang.reflect.Field;
 import java.math.BigInteger;
-import java.util.*;
-import java.util.stream.Collectors;
+import java.security.MessageDigest;
+import java.util.function.Supplier;
 
 import static org.tdf.rlp.RLPItem.NULL;
-import static org.tdf.rlp.RLPItem.ONE;
 
 /**
  * The RLP encoding function takes in an item. An item is defined as follows
@@ -34,76 +31,8 @@ public interface RLPElement {
     // convert any object as a rlp tree
     static RLPElement readRLPTree(Object t, RLPContext context) {
         if (t == null) return NULL;
-
         if (t instanceof RLPElement) return (RLPElement) t;
-        RLPEncoder encoder = RLPUtils.getAnnotatedRLPEncoder(t.getClass());
-        if (encoder != null) {
-            return encoder.encode(t);
-        }
-        encoder = context.getEncoder(t.getClass());
-        if (encoder != null) {
-            return encoder.encode(t);
-        }
-        if (t.getClass() == boolean.class || t instanceof Boolean) {
-            return ((Boolean) t) ? ONE : NULL;
-        }
-        if (t instanceof BigInteger) return RLPItem.fromBigInteger((BigInteger) t);
-        if (t instanceof byte[]) return RLPItem.fromBytes((byte[]) t);
-        if (t instanceof String) return RLPItem.fromString((String) t);
-        // terminals
-        if (t.getClass() == byte.class || (t instanceof Byte)) {
-            return RLPItem.fromByte((byte) t);
-        }
-        if (t.getClass() == short.class || t instanceof Short) {
-            return RLPItem.fromShort((short) t);
-        }
-        if (t.getClass() == int.class || t instanceof Integer) {
-            return RLPItem.fromInt((int) t);
-        }
-        if (t.getClass() == long.class || t instanceof Long) {
-            return RLPItem.fromLong((long) t);
-        }
-        if (t instanceof Map) {
-            return RLPCodec.encodeMap((Map) t, null, context);
-        }
-        if (t.getClass().isArray()) {
-            RLPList list = RLPList.createEmpty(Array.getLength(t));
-            for (int i = 0; i < Array.getLength(t); i++) {
-                list.add(readRLPTree(Array.get(t, i), context));
-            }
-            return list;
-        }
-        if (t instanceof Collection) {
-            return RLPCodec.encodeCollection((Collection) t, null, context);
-        }
-        // peek fields reflection
-        List<Field> fields = RLPUtils.getRLPFields(t.getClass());
-        if (fields.size() == 0)
-            throw new RuntimeException("no encodable field of " + t.getClass().getName() + " found");
-        return new RLPList(fields.stream().map(f -> {
-            f.setAccessible(true);
-            Object o;
-            try {
-                o = f.get(t);
-            } catch (IllegalAccessException e) {
-                throw new RuntimeException(e);
-            }
-            Comparator comparator = RLPUtils.getKeyOrdering(f);
-            if (o == null) return NULL;
-            RLPEncoder fieldEncoder = RLPUtils.getAnnotatedRLPEncoder(f);
-            if (fieldEncoder != null) {
-                return fieldEncoder.encode(o);
-            }
-            if (Set.class.isAssignableFrom(f.getType())) {
-                return RLPCodec.encodeCollection((Collection) o, comparator, context);
-            }
-            comparator = RLPUtils.getKeyOrdering(f);
-            if (Map.class.isAssignableFrom(f.getType())) {
-                Map m = (Map) o;
-                return RLPCodec.encodeMap(m, comparator, context);
-            }
-            return readRLPTree(o, context);
-        }).collect(Collectors.toList()));
+        return TypeCodec.get(t.getClass()).encode(t, context);
     }
 
     boolean isRLPList();
@@ -118,6 +47,28 @@ public interface RLPElement {
 
     byte[] getEncoded();
 
+    /**
+     * hash of the encoding computed without materializing it,
+     * memoized on unmodified lists for the same digestFactory instance, so digestFactory should be a shared constant
+     */
+    default byte[] hash(Supplier<? extends MessageDigest> digestFactory) {
+        return RLPCodec.hash(this, digestFactory.get());
+    }
+
+    default byte[] keccak256() {
+        return hash(Keccak256.PER_THREAD);
+    }
+
+    /**
+     * copy of a decoded element which does not share the input array it is a slice of, so the input can be collected
+     * once the element is dropped, the element itself is unchanged
+     *
+     * @see RLPRetention
+     */
+    default RLPElement detach() {
+        return RLPRetention.detach(this);
+    }
+
     byte[] asBytes();
 
     byte asByte();
@@ -19,4 +19,18 @@ public @interface RLPEncoding {
             return 0;
         }
     }
+
+    /**
+     * canonical ordering, keys of map or elements of set are sorted by their rlp encoding in unsigned lexicographic order,
+     * when used as keyOrdering the encoding of each key is computed only once
+     */
+    class Canonical implements Comparator {
+        @Override
+        public int compare(Object o1, Object o2) {
+            return RLPUtils.compareBytes(
+                    RLPElement.readRLPTree(o1).getEncoded(),
+                    RLPElement.readRLPTree(o2).getEncoded()
+            );
+        }
+    }
 }
@@ -0,0 +1,183 @@
+package org.tdf.rlp;
+
+import lombok.NonNull;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+import static org.tdf.rlp.RLPConstants.*;
+
+/**
+ * sequential reader of concatenated rlp elements from an InputStream or ReadableByteChannel.
+ * the size of each record is learned from its prefix, the source is never read beyond the current record.
+ * <p>
+ * records are read into one growable buffer. {@link #read(Class)} decodes from the buffer directly,
+ * so the decoded object should not retain RLPElement or lazily decoded fields, which are views of the buffer.
+ * {@link #next()} and {@link #readBytes()} copy the record and are always safe to retain.
+ */
+public final class RLPInputStream implements Iterator<RLPElement>, Closeable {
+    private static final int INITIAL_BUFFER_SIZE = 256;
+
+    private final InputStream in;
+    private final ReadableByteChannel channel;
+
+    private byte[] buf = new byte[INITIAL_BUFFER_SIZE];
+    // size of the record in buf
+    private int size;
+    // the first byte of next record, -1 if not read yet
+    private int first = -1;
+    // remaining bytes of the entered list, -1 if no list is entered
+    private long remaining = -1;
+
+    public RLPInputStream(@NonNull InputStream in) {
+        this.in = in;
+        this.channel = null;
+    }
+
+    public RLPInputStream(@NonNull ReadableByteChannel channel) {
+        this.in = null;
+        this.channel = channel;
+    }
+
+    /**
+     * read the prefix of a list, the following records are elements of the list and
+     * {@link #hasNext()} returns false after the last element, nested lists are not tracked
+     *
+     * @return length of the encoded elements
+     */
+    public long enterList() {
+        if (!hasNext()) throw new NoSuchElementException();
+        if (first < OFFSET_SHORT_LIST) throw new RuntimeException("not a rlp list");
+        int prefix = first;
+        first = -1;
+        long length = prefix <= OFFSET_LONG_LIST ?
+                prefix - OFFSET_SHORT_LIST :
+                readLength(prefix - OFFSET_LONG_LIST, 1);
+        remaining = length;
+        return length;
+    }
+
+    @Override
+    public boolean hasNext() {
+        if (first >= 0) return true;
+        if (remaining == 0) return false;
+        int b = readByte();
+        if (b < 0) {
+            if (remaining > 0) throw new RuntimeException("unexpected end of stream");
+            return false;
+        }
+        first = b;
+        return true;
+    }
+
+    @Override
+    public RLPElement next() {
+        return RLPElement.fromEncoded(readBytes());
+    }
+
+    // copy of the next record
+    public byte[] readBytes() {
+        readRecord();
+        return Arrays.copyOf(buf, size);
+    }
+
+    public <T> T read(Class<T> clazz) {
+        return read(clazz, RLPContext.EMPTY);
+    }
+
+    public <T> T read(Class<T> clazz, RLPContext context) {
+        readRecord();
+        return RLPCodec.decode(RLPParser.fromEncoded(buf, 0, size, true), clazz, context);
+    }
+
+    private void readRecord() {
+        if (!hasNext()) throw new NoSuchElementException();
+        int prefix = first;
+        first = -1;
+        buf[0] = (byte) prefix;
+        int headerSize = 1;
+        long length;
+        if (prefix < OFFSET_SHORT_ITEM) {
+            length = 0;
+        } else if (prefix <= OFFSET_LONG_ITEM) {
+            length = prefix - OFFSET_SHORT_ITEM;
+        } else if (prefix < OFFSET_SHORT_LIST) {
+            headerSize += prefix - OFFSET_LONG_ITEM;
+            length = readLength(prefix - OFFSET_LONG_ITEM, 1);
+        } else if (prefix <= OFFSET_LONG_LIST) {
+            length = prefix - OFFSET_SHORT_LIST;
+        } else {
+            headerSize += prefix - OFFSET_LONG_LIST;
+            length = readLength(prefix - OFFSET_LONG_LIST, 1);
+        }
+        if (length > Integer.MAX_VALUE - headerSize) throw new RuntimeException("record too large");
+        size = headerSize + (int) length;
+        ensureCapacity(size);
+        readFully(headerSize, (int) length);
+        if (remaining >= 0) {
+            remaining -= size;
+            if (remaining < 0) throw new RuntimeException("element overflows the entered list");
+        }
+    }
+
+    // read big-endian length of lenlen bytes into buf[offset, offset + lenlen)
+    private long readLength(int lenlen, int offset) {
+        if (lenlen > 4) throw new RuntimeException("record too large");
+        readFully(offset, lenlen);
+        long length = 0;
+        for (int i = 0; i < lenlen; i++) {
+            length = (length << 8) | (buf[offset + i] & 0xff);
+        }
+        return length;
+    }
+
+    private void ensureCapacity(int capacity) {
+        if (buf.length >= capacity) return;
+        buf = Arrays.copyOf(buf, Math.max(capacity, buf.length * 2));
+    }
+
+    private int readByte() {
+        try {
+            if (in != null) return in.read();
+            ByteBuffer b = ByteBuffer.wrap(buf, 0, 1);
+            while (b.hasRemaining()) {
+                if (channel.read(b) < 0) return -1;
+            }
+            return buf[0] & 0xff;
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private void readFully(int offset, int length) {
+        try {
+            if (in != null) {
+                while (length > 0) {
+                    int n = in.read(buf, offset, length);
+                    if (n < 0) throw new RuntimeException("unexpected end of stream");
+                    offset += n;
+                    length -= n;
+                }
+                return;
+            }
+            ByteBuffer b = ByteBuffer.wrap(buf, offset, length);
+            while (b.hasRemaining()) {
+                if (channel.read(b) < 0) throw new RuntimeException("unexpected end of stream");
+            }
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (in != null) in.close();
+        if (channel != null) channel.close();
+    }
+}
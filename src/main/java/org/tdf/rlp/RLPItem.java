@@ -14,21 +14,64 @@ import static org.tdf.rlp.RLPCodec.encodeBytes;
 
 /**
  * immutable rlp item
+ * <p>
+ * items of single bytes and of integers up to {@link #MAX_SHARED_INTEGER} are shared instances with cached encoding
+ * and number, returned by the factories and by the parser without allocation,
+ * the default bound 1024 is changed by -Dorg.tdf.rlp.maxSharedInteger=n
  */
 @AllArgsConstructor(access = AccessLevel.PACKAGE)
 @Builder(access = AccessLevel.PACKAGE)
 public final class RLPItem implements RLPElement {
-    public static final RLPItem ONE = new RLPItem(new LazyByteArray(new byte[]{1}));
+    // at least 0xff so every single byte item is shared
+    public static final int MAX_SHARED_INTEGER = Math.max(Integer.getInteger("org.tdf.rlp.maxSharedInteger", 1024), 0xff);
+    public static final RLPItem ONE = shared(new byte[]{1}, 1L);
     public static final RLPItem NULL = new RLPItem(EMPTY);
     private static byte[] NULL_ENCODED = encodeBytes(null);
+    // item of the single byte 0x00, which is not a number
+    private static final RLPItem ZERO_BYTE = shared(new byte[]{0}, null);
+    private static final RLPItem[] SHARED_INTEGERS = sharedIntegers();
     private LazyByteArray data;
     private Long longNumber;
     private LazyByteArray encoded;
+    // shared instance, content and encoding are copied before returned
+    private boolean shared;
 
     RLPItem(LazyByteArray data) {
         this.data = data;
     }
 
+    private static RLPItem shared(byte[] data, Long number) {
+        RLPItem item = new RLPItem(new LazyByteArray(data));
+        item.longNumber = number;
+        item.encoded = new LazyByteArray(encodeBytes(data));
+        item.shared = true;
+        return item;
+    }
+
+    private static RLPItem[] sharedIntegers() {
+        RLPItem[] items = new RLPItem[MAX_SHARED_INTEGER + 1];
+        items[0] = NULL;
+        items[1] = ONE;
+        for (int i = 2; i < items.length; i++) {
+            byte[] bytes = ByteBuffer.allocate(Integer.BYTES).putInt(i).array();
+            int leadingZeroBytes = Integer.numberOfLeadingZeros(i) / Byte.SIZE;
+            items[i] = shared(Arrays.copyOfRange(bytes, leadingZeroBytes, Integer.BYTES), (long) i);
+        }
+        return items;
+    }
+
+    // shared item of content raw[offset, offset + length), null if none
+    static RLPItem lookup(byte[] raw, int offset, int length) {
+        if (length == 1) return raw[offset] == 0 ? ZERO_BYTE : SHARED_INTEGERS[Byte.toUnsignedInt(raw[offset])];
+        // not a number or too large
+        if (length == 0 || length > Integer.BYTES || raw[offset] == 0) return null;
+        long n = 0;
+        for (int i = offset; i < offset + length; i++) {
+            n = (n << Byte.SIZE) | Byte.toUnsignedInt(raw[i]);
+        }
+        return n <= MAX_SHARED_INTEGER ? SHARED_INTEGERS[(int) n] : null;
+    }
+
     public static RLPItem fromByte(byte b) {
         return fromLong(Byte.toUnsignedLong(b));
     }
@@ -46,8 +89,7 @@ public final class RLPItem implements RLPElement {
     }
 
     public static RLPItem fromLong(long l) {
-        if (l == 0) return NULL;
-        if (l == 1) return ONE;
+        if (l >= 0 && l <= MAX_SHARED_INTEGER) return SHARED_INTEGERS[(int) l];
         int leadingZeroBytes = Long.numberOfLeadingZeros(l) / Byte.SIZE;
 
         return fromBytes(concat(
@@ -63,7 +105,7 @@ public final class RLPItem implements RLPElement {
 
     public static RLPItem fromBytes(byte[] data) {
         if (data == null || data.length == 0) return NULL;
-        if (data.length == 1 && (Byte.toUnsignedInt(data[0]) == 1)) return ONE;
+        if (data.length == 1) return lookup(data, 0, 1);
         return new RLPItem(new LazyByteArray(data));
     }
 
@@ -71,6 +113,7 @@ public final class RLPItem implements RLPElement {
         if (bigInteger == null || bigInteger.equals(BigInteger.ZERO)) return NULL;
         if (bigInteger.equals(BigInteger.ONE)) return ONE;
         if (bigInteger.compareTo(BigInteger.ZERO) < 0) throw new RuntimeException("negative numbers are not allowed");
+        if (bigInteger.bitLength() < Long.SIZE) return fromLong(bigInteger.longValue());
 
         return fromBytes(asUnsignedByteArray(bigInteger));
     }
@@ -111,7 +154,11 @@ public final class RLPItem implements RLPElement {
     }
 
     public byte[] asBytes() {
-        return data.get();
+        return shared ? data.get().clone() : data.get();
+    }
+
+    LazyByteArray getData() {
+        return data;
     }
 
     @Override
@@ -181,15 +228,19 @@ public final class RLPItem implements RLPElement {
     }
 
     public byte[] getEncoded() {
-        if (isNull()) return NULL_ENCODED;
+        if (isNull()) return NULL_ENCODED.clone();
         if (encoded == null) encoded = new LazyByteArray(encodeBytes(asBytes()));
-        return encoded.get();
+        return shared ? encoded.get().clone() : encoded.get();
     }
 
     void setEncoded(LazyByteArray encoded) {
         this.encoded = encoded;
     }
 
+    LazyByteArray getCachedEncoded() {
+        return encoded;
+    }
+
     @Override
     public boolean isRLPItem() {
         return true;
@@ -1,7 +1,9 @@
 package org.tdf.rlp;
 
 import java.math.BigInteger;
+import java.security.MessageDigest;
 import java.util.*;
+import java.util.function.Supplier;
 import java.util.function.UnaryOperator;
 import java.util.stream.Collectors;
 
@@ -9,6 +11,10 @@ public final class RLPList implements RLPElement, List<RLPElement> {
     static byte[] EMPTY_ENCODED_LIST = RLPCodec.encodeElements(new ArrayList<>());
     private List<RLPElement> elements = new ArrayList<>();
     private LazyByteArray encoded;
+    // list containing this list when decoded, its cached encoding is invalidated with this
+    private RLPList parent;
+    // memoized hash of the encoding with the digest factory which computed it, replaced as a whole
+    private Hash hash;
 
     private RLPList() {
     }
@@ -35,6 +41,16 @@ public final class RLPList implements RLPElement, List<RLPElement> {
 
     private void setDirty() {
         encoded = null;
+        hash = null;
+        if (parent != null) parent.setDirty();
+    }
+
+    void setParent(RLPList parent) {
+        this.parent = parent;
+    }
+
+    RLPList getParent() {
+        return parent;
     }
 
     @Override
@@ -65,10 +81,25 @@ public final class RLPList implements RLPElement, List<RLPElement> {
         return encoded.get();
     }
 
+    @Override
+    public byte[] hash(Supplier<? extends MessageDigest> digestFactory) {
+        Hash memo = hash;
+        // the memoized digest is never handed out
+        if (memo != null && memo.factory == digestFactory) return memo.value.clone();
+        byte[] h = RLPCodec.hash(this, digestFactory.get());
+        hash = new Hash(digestFactory, h);
+        return h.clone();
+    }
+
     void setEncoded(LazyByteArray encoded) {
         this.encoded = encoded;
     }
 
+    // null if the list is modified or not encoded yet
+    LazyByteArray getCachedEncoded() {
+        return encoded;
+    }
+
     @Override
     public boolean isNull() {
         return false;
@@ -277,4 +308,14 @@ public final class RLPList implements RLPElement, List<RLPElement> {
     public int asInt() {
         throw new RuntimeException("not a rlp item");
     }
+
+    private static final class Hash {
+        private final Supplier<? extends MessageDigest> factory;
+        private final byte[] value;
+
+        private Hash(Supplier<? extends MessageDigest> factory, byte[] value) {
+            this.factory = factory;
+            this.value = value;
+        }
+    }
 }
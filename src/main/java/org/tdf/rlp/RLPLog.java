@@ -0,0 +1,389 @@
+package org.tdf.rlp;
+
+import lombok.NonNull;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.CRC32;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * append-only log of rlp encoded records addressed by sequence number.
+ * <p>
+ * records are appended to segment files {@code <base>.log}, each followed by the crc32 of the record.
+ * each segment has an index file {@code <base>.idx}, a memory-mapped long[] of the number of records known to be
+ * durable followed by the end offset of every record, so get(n) is a positioned read.
+ * a new segment is started when the current one reaches segmentSize bytes or segmentRecords records.
+ * <p>
+ * records are self-delimiting, on reopen records after the durable ones are accepted while their checksums match,
+ * whether the index has them or not, so a torn or never written tail, e.g. zeros after a crash, is truncated.
+ * <p>
+ * append() does not fsync, appendSync() returns after the record is durable, concurrent appendSync() calls
+ * share one fsync (group commit).
+ */
+public final class RLPLog implements Closeable {
+    public static final long DEFAULT_SEGMENT_SIZE = 256L << 20;
+    public static final int DEFAULT_SEGMENT_RECORDS = 1 << 20;
+
+    private static final String DATA_SUFFIX = ".log";
+    private static final String INDEX_SUFFIX = ".idx";
+    // prefix and length of length of an encoded element
+    private static final int MAX_HEADER_SIZE = 9;
+    // crc32 following every record
+    private static final int TRAILER_SIZE = Integer.BYTES;
+
+    private final Path directory;
+    private final long segmentSize;
+    private final int segmentRecords;
+
+    // copy on write, segments are sorted by base
+    private volatile Segment[] segments;
+    // number of records, written after the record is appended
+    private volatile long size;
+    // segments[firstDirty:] may have data not forced to disk, guarded by this
+    private int firstDirty;
+
+    private final Object syncLock = new Object();
+    // number of records forced to disk, guarded by syncLock
+    private long durable;
+    private boolean syncing;
+
+    private RLPLog(Path directory, long segmentSize, int segmentRecords) {
+        this.directory = directory;
+        this.segmentSize = segmentSize;
+        this.segmentRecords = segmentRecords;
+    }
+
+    public static RLPLog open(Path directory) {
+        return open(directory, DEFAULT_SEGMENT_SIZE, DEFAULT_SEGMENT_RECORDS);
+    }
+
+    public static RLPLog open(@NonNull Path directory, long segmentSize, int segmentRecords) {
+        if (segmentSize <= 0) throw new RuntimeException("segment size should be positive");
+        if (segmentRecords <= 0 || segmentRecords > Integer.MAX_VALUE / Long.BYTES)
+            throw new RuntimeException("invalid segment records " + segmentRecords);
+        RLPLog log = new RLPLog(directory, segmentSize, segmentRecords);
+        try {
+            Files.createDirectories(directory);
+            List<Long> bases;
+            try (Stream<Path> files = Files.list(directory)) {
+                bases = files.map(x -> x.getFileName().toString())
+                        .filter(x -> x.endsWith(DATA_SUFFIX))
+                        .map(x -> Long.parseLong(x.substring(0, x.length() - DATA_SUFFIX.length())))
+                        .sorted()
+                        .collect(Collectors.toList());
+            }
+            List<Segment> segments = new ArrayList<>();
+            long expected = 0;
+            for (long base : bases) {
+                if (base != expected) throw new RuntimeException("corrupted log, segment " + base + " not found");
+                Segment s = log.openSegment(base);
+                segments.add(s);
+                expected = base + s.count;
+            }
+            if (segments.isEmpty()) segments.add(log.openSegment(0));
+            log.segments = segments.toArray(new Segment[0]);
+            log.size = expected;
+            log.durable = expected;
+            log.firstDirty = log.segments.length - 1;
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        return log;
+    }
+
+    public long size() {
+        return size;
+    }
+
+    public long append(Object record) {
+        return appendEncoded(RLPCodec.encode(record));
+    }
+
+    /**
+     * @param encoded exactly one encoded rlp element
+     * @return sequence number of the record
+     */
+    public synchronized long appendEncoded(@NonNull byte[] encoded) {
+        if (encoded.length == 0 || RLPParser.sizeOf(encoded, 0) != encoded.length)
+            throw new RuntimeException("invalid encoding");
+        Segment s = segments[segments.length - 1];
+        if (s.count == segmentRecords || (s.count > 0 && s.end + encoded.length > segmentSize)) {
+            s = roll();
+        }
+        try {
+            s.append(encoded);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        return size++;
+    }
+
+    public long appendSync(Object record) {
+        long seq = append(record);
+        awaitDurable(seq + 1);
+        return seq;
+    }
+
+    // force all appended records to disk
+    public void sync() {
+        awaitDurable(size);
+    }
+
+    public byte[] getEncoded(long n) {
+        if (n < 0 || n >= size) throw new IndexOutOfBoundsException("sequence " + n + " out of range " + size);
+        Segment[] segments = this.segments;
+        int lo = 0;
+        int hi = segments.length - 1;
+        while (lo < hi) {
+            int mid = (lo + hi + 1) >>> 1;
+            if (segments[mid].base <= n) {
+                lo = mid;
+            } else {
+                hi = mid - 1;
+            }
+        }
+        try {
+            return segments[lo].read((int) (n - segments[lo].base));
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    public RLPElement get(long n) {
+        return RLPElement.fromEncoded(getEncoded(n));
+    }
+
+    public <T> T get(long n, Class<T> clazz) {
+        return RLPCodec.decode(getEncoded(n), clazz);
+    }
+
+    public <T> T get(long n, Class<T> clazz, RLPContext context) {
+        return RLPCodec.decode(getEncoded(n), clazz, context);
+    }
+
+    @Override
+    public void close() throws IOException {
+        sync();
+        synchronized (this) {
+            for (Segment s : segments) {
+                s.close();
+            }
+        }
+    }
+
+    private void awaitDurable(long target) {
+        while (true) {
+            synchronized (syncLock) {
+                while (syncing && durable < target) {
+                    try {
+                        syncLock.wait();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        throw new RuntimeException(e);
+                    }
+                }
+                if (durable >= target) return;
+                syncing = true;
+            }
+            // leader of this group, force everything appended so far
+            long upTo;
+            int dirtyFrom;
+            Segment[] toForce;
+            int[] counts;
+            synchronized (this) {
+                upTo = size;
+                dirtyFrom = firstDirty;
+                toForce = Arrays.copyOfRange(segments, firstDirty, segments.length);
+                counts = new int[toForce.length];
+                for (int i = 0; i < toForce.length; i++) {
+                    counts[i] = toForce[i].count;
+                }
+                firstDirty = segments.length - 1;
+            }
+            boolean success = false;
+            try {
+                for (int i = 0; i < toForce.length; i++) {
+                    toForce[i].force(counts[i]);
+                }
+                success = true;
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            } finally {
+                if (!success) {
+                    synchronized (this) {
+                        firstDirty = Math.min(firstDirty, dirtyFrom);
+                    }
+                }
+                synchronized (syncLock) {
+                    syncing = false;
+                    if (success) durable = Math.max(durable, upTo);
+                    syncLock.notifyAll();
+                }
+            }
+        }
+    }
+
+    private Segment roll() {
+        Segment[] old = segments;
+        Segment s;
+        try {
+            s = openSegment(size);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        Segment[] copied = Arrays.copyOf(old, old.length + 1);
+        copied[old.length] = s;
+        segments = copied;
+        return s;
+    }
+
+    private Segment openSegment(long base) throws IOException {
+        String name = String.format("%020d", base);
+        FileChannel data = FileChannel.open(directory.resolve(name + DATA_SUFFIX),
+                StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        FileChannel index = FileChannel.open(directory.resolve(name + INDEX_SUFFIX),
+                StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        MappedByteBuffer mapped = index.map(FileChannel.MapMode.READ_WRITE, 0, (segmentRecords + 1L) * Long.BYTES);
+        index.close();
+        Segment s = new Segment(base, data, mapped);
+        s.recover();
+        return s;
+    }
+
+    private static final class Segment {
+        private final long base;
+        private final FileChannel data;
+        // number of durable records followed by end offsets of records, zero for absent
+        private final MappedByteBuffer index;
+        private int count;
+        // size of valid data
+        private long end;
+
+        private Segment(long base, FileChannel data, MappedByteBuffer index) {
+            this.base = base;
+            this.data = data;
+            this.index = index;
+        }
+
+        private long endOf(int i) {
+            return index.getLong((i + 1) * Long.BYTES);
+        }
+
+        private void setEnd(int i, long end) {
+            index.putLong((i + 1) * Long.BYTES, end);
+        }
+
+        private void append(byte[] encoded) throws IOException {
+            long position = write(ByteBuffer.wrap(encoded), end);
+            position = write(ByteBuffer.allocate(TRAILER_SIZE).putInt(0, checksum(encoded)), position);
+            end = position;
+            setEnd(count, end);
+            count++;
+        }
+
+        private long write(ByteBuffer buf, long position) throws IOException {
+            while (buf.hasRemaining()) {
+                position += data.write(buf, position);
+            }
+            return position;
+        }
+
+        private void read(ByteBuffer buf, long position) throws IOException {
+            while (buf.hasRemaining()) {
+                if (data.read(buf, position + buf.position()) < 0) throw new IOException("unexpected end of segment " + base);
+            }
+        }
+
+        private byte[] read(int i) throws IOException {
+            long start = i == 0 ? 0 : endOf(i - 1);
+            byte[] res = new byte[(int) (endOf(i) - start - TRAILER_SIZE)];
+            read(ByteBuffer.wrap(res), start);
+            return res;
+        }
+
+        // the first records are on disk when the mark is written
+        private void force(int records) throws IOException {
+            data.force(false);
+            index.putLong(0, Math.max(index.getLong(0), records));
+            index.force();
+        }
+
+        private static int checksum(byte[] encoded) {
+            CRC32 crc = new CRC32();
+            crc.update(encoded, 0, encoded.length);
+            return (int) crc.getValue();
+        }
+
+        // size of the record with its trailer at end if it is complete and its checksum matches, otherwise -1
+        private long recordAt(long end, long dataSize, byte[] header) throws IOException {
+            ByteBuffer buf = ByteBuffer.wrap(header, 0, (int) Math.min(header.length, dataSize - end));
+            while (buf.hasRemaining()) {
+                if (data.read(buf, end + buf.position()) < 0) break;
+            }
+            int n = buf.position();
+            int prefix = header[0] & 0xff;
+            int lenlen = prefix >= RLPConstants.OFFSET_SHORT_LIST ?
+                    Math.max(prefix - RLPConstants.OFFSET_LONG_LIST, 0) :
+                    Math.max(prefix - RLPConstants.OFFSET_LONG_ITEM, 0);
+            if (n < 1 + lenlen) return -1;
+            long recordSize = RLPParser.sizeOf(Arrays.copyOf(header, n), 0);
+            if (recordSize <= 0 || end + recordSize + TRAILER_SIZE > dataSize || recordSize > Integer.MAX_VALUE)
+                return -1;
+            byte[] record = new byte[(int) recordSize];
+            ByteBuffer trailer = ByteBuffer.allocate(TRAILER_SIZE);
+            read(ByteBuffer.wrap(record), end);
+            read(trailer, end + recordSize);
+            if (trailer.getInt(0) != checksum(record)) return -1;
+            return recordSize + TRAILER_SIZE;
+        }
+
+        // trust index entries of durable records, then accept records after them while their checksums match
+        private void recover() throws IOException {
+            long dataSize = data.size();
+            int capacity = index.capacity() / Long.BYTES - 1;
+            long durable = Math.min(index.getLong(0), capacity);
+            long prev = 0;
+            while (count < durable) {
+                long e = endOf(count);
+                if (e <= prev || e > dataSize) break;
+                prev = e;
+                count++;
+            }
+            end = prev;
+            byte[] header = new byte[MAX_HEADER_SIZE];
+            while (count < capacity && end < dataSize) {
+                long recordSize = recordAt(end, dataSize, header);
+                if (recordSize < 0) break;
+                end += recordSize;
+                setEnd(count, end);
+                count++;
+            }
+            if (count == capacity && end < dataSize && recordAt(end, dataSize, header) >= 0)
+                throw new RuntimeException("segment " + base + " has more records than the index capacity");
+            for (int i = count; i < capacity && endOf(i) != 0; i++) {
+                setEnd(i, 0);
+            }
+            // drop partially written or garbage tail
+            if (dataSize > end) data.truncate(end);
+            data.force(true);
+            index.putLong(0, count);
+            index.force();
+        }
+
+        private void close() throws IOException {
+            index.force();
+            data.close();
+        }
+    }
+}
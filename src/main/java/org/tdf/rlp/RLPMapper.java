@@ -1,7 +1,16 @@
 package org.tdf.rlp;
 
+import lombok.NonNull;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+
 public class RLPMapper {
     private RLPContext context = RLPContext.EMPTY;
+    private DecodeCache decodeCache;
+    private Set<Class<?>> cachedClasses = Collections.emptySet();
 
     public RLPElement readRLPTree(Object o) {
         return RLPElement.readRLPTree(o, context);
@@ -16,12 +25,44 @@ public class RLPMapper {
     }
 
     public <T> T decode(byte[] data, Class<T> clazz) {
+        if (decodeCache != null && cachedClasses.contains(clazz)) return decodeCache.decode(data, clazz, context);
         return RLPCodec.decode(data, clazz, context);
     }
 
+    public <T> T decodeTyped(byte[] data, Class<T> clazz) {
+        return RLPCodec.decodeTyped(data, clazz, context);
+    }
+
+    public <T> T decodeTyped(RLPElement el, Class<T> clazz) {
+        return RLPCodec.decodeTyped(el, clazz, context);
+    }
+
+    public byte[] encodeTyped(int type, Object body) {
+        return RLPCodec.encodeTyped(type, body, context);
+    }
+
     public RLPMapper withContext(RLPContext context) {
+        RLPMapper ret = copy();
+        ret.context = context;
+        return ret;
+    }
+
+    /**
+     * decoding byte[] into one of classes looks up the cache first,
+     * the classes should be immutable since cached objects are shared
+     */
+    public RLPMapper withDecodeCache(@NonNull DecodeCache decodeCache, @NonNull Class<?>... classes) {
+        RLPMapper ret = copy();
+        ret.decodeCache = decodeCache;
+        ret.cachedClasses = new HashSet<>(Arrays.asList(classes));
+        return ret;
+    }
+
+    private RLPMapper copy() {
         RLPMapper ret = new RLPMapper();
         ret.context = context;
+        ret.decodeCache = decodeCache;
+        ret.cachedClasses = cachedClasses;
         return ret;
     }
 }
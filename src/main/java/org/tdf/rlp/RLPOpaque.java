@@ -0,0 +1,20 @@
+package org.tdf.rlp;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * marks a field whose subtree is passed through without being decoded or rebuilt, e.g. payloads relayed as is.
+ * the field should be either
+ * <ul>
+ * <li>RLPElement, decoded as a lazy view of the source slice which is parsed only on access</li>
+ * <li>byte[], decoded as the encoding of the subtree</li>
+ * </ul>
+ * both are encoded by copying the encoding verbatim, only the prefix of a byte[] value is checked.
+ */
+@Target({ElementType.FIELD})
+@Retention(RetentionPolicy.RUNTIME)
+public @interface RLPOpaque {
+}
@@ -38,6 +38,29 @@ final class RLPParser {
         return lazy ? parser.readLazy() : parser.readElement();
     }
 
+    // parse data[offset, limit) which should be exactly one rlp element
+    static RLPElement fromEncoded(@NonNull byte[] data, int offset, int limit, boolean lazy) {
+        RLPParser parser = new RLPParser(data, offset, limit);
+        if (limit <= offset || parser.estimateSize() != limit - offset) {
+            throw new RuntimeException("invalid encoding");
+        }
+        return lazy ? parser.readLazy() : parser.readElement();
+    }
+
+    // size of the encoded element starts at data[offset], only the prefix is read
+    static int sizeOf(@NonNull byte[] data, int offset) {
+        return new RLPParser(data, offset, data.length).estimateSize();
+    }
+
+    // element over an encoding which is not parsed until accessed, only the prefix is checked
+    static LazyElement opaque(@NonNull byte[] data) {
+        RLPParser parser = new RLPParser(data);
+        if (data.length == 0 || parser.estimateSize() != data.length) {
+            throw new RuntimeException("invalid encoding");
+        }
+        return new LazyElement(parser, null);
+    }
+
     private RLPParser readAsParser(int length) {
         if (offset + length > limit) throw new RuntimeException("read overflow");
         RLPParser parser = new RLPParser(raw, offset, offset + length);
@@ -107,7 +130,9 @@ final class RLPParser {
         }
         int limit = parser.limit;
         while (parser.hasRemaining()) {
-            list.add(lazy ? parser.readLazyElement() : parser.readElement());
+            RLPElement element = lazy ? parser.readLazyElement(list) : parser.readElement();
+            if (element instanceof RLPList) ((RLPList) element).setParent(list);
+            list.add(element);
         }
         list.setEncoded(new LazyByteArray(raw, offset, limit));
         return list;
@@ -124,19 +149,24 @@ final class RLPParser {
         return readItem();
     }
 
-    LazyElement readLazyElement() {
-        return new LazyElement(readAsParser(estimateSize()));
+    LazyElement readLazyElement(RLPList parent) {
+        return new LazyElement(readAsParser(estimateSize()), parent);
     }
 
     private RLPItem readItem() {
         int initOffset = this.offset;
         int prefix = read();
         if (prefix < OFFSET_SHORT_ITEM) {
-            return RLPItem.fromBytes(new byte[]{(byte) prefix});
+            return RLPItem.lookup(raw, initOffset, 1);
         }
         if (prefix <= OFFSET_LONG_ITEM) {
             int length = prefix - OFFSET_SHORT_ITEM;
             if (length == 0) return RLPItem.NULL;
+            RLPItem shared = RLPItem.lookup(raw, offset, length);
+            if (shared != null) {
+                skip(length);
+                return shared;
+            }
             RLPItem item = new RLPItem(new LazyByteArray(raw, offset, offset + length));
             skip(length);
             return item;
@@ -155,6 +185,10 @@ final class RLPParser {
         return offset < limit;
     }
 
+    byte[] array() {
+        return raw;
+    }
+
     LazyByteArray getLazyByteArray() {
         return new LazyByteArray(raw, offset, limit);
     }
@@ -0,0 +1,111 @@
+package org.tdf.rlp;
+
+import lombok.NonNull;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Set;
+
+/**
+ * decoded elements are slices of the input array, so a small retained value, e.g. an address kept from a block,
+ * pins the whole input. retained bytes are the heap arrays reachable from an element, logical bytes its encoding.
+ * <pre>
+ * if (RLPRetention.retainedBytes(el) > 64 * RLPRetention.logicalBytes(el)) el = el.detach();
+ * </pre>
+ * decoding with {@link RLPContext#withDetachRatio(int)} keeps detached copies in decoded objects.
+ */
+public final class RLPRetention {
+    private RLPRetention() {
+    }
+
+    // size of the encoding of the element
+    public static long logicalBytes(@NonNull RLPElement element) {
+        return new RLPWriter().measure(element);
+    }
+
+    // total length of the arrays referenced by the element and by the cached encodings of lists containing it
+    public static long retainedBytes(@NonNull RLPElement element) {
+        Set<byte[]> arrays = Collections.newSetFromMap(new IdentityHashMap<>());
+        collect(element, arrays);
+        long n = 0;
+        for (byte[] a : arrays) {
+            n += a.length;
+        }
+        return n;
+    }
+
+    private static void collect(RLPElement element, Set<byte[]> arrays) {
+        if (element instanceof LazyElement) {
+            LazyElement lazy = (LazyElement) element;
+            arrays.add(lazy.getCachedEncoded().array());
+            arrays.add(lazy.getParser().array());
+            collectParents(lazy.getParent(), arrays);
+            if (lazy.getParsed() != null) collect(lazy.getParsed(), arrays);
+            return;
+        }
+        if (element instanceof RLPItem) {
+            RLPItem item = (RLPItem) element;
+            arrays.add(item.getData().array());
+            if (item.getCachedEncoded() != null) arrays.add(item.getCachedEncoded().array());
+            return;
+        }
+        if (element instanceof RLPList) {
+            RLPList list = (RLPList) element;
+            if (list.getCachedEncoded() != null) arrays.add(list.getCachedEncoded().array());
+            collectParents(list.getParent(), arrays);
+            for (RLPElement child : list) {
+                collect(child, arrays);
+            }
+        }
+    }
+
+    private static void collectParents(RLPList parent, Set<byte[]> arrays) {
+        for (RLPList p = parent; p != null; p = p.getParent()) {
+            if (p.getCachedEncoded() != null) arrays.add(p.getCachedEncoded().array());
+        }
+    }
+
+    // the encoding of the element as a slice, null if not cached
+    private static LazyByteArray region(RLPElement element) {
+        if (element instanceof LazyElement) return ((LazyElement) element).getCachedEncoded();
+        if (element instanceof RLPItem) {
+            RLPItem item = (RLPItem) element;
+            return item.getCachedEncoded() != null ? item.getCachedEncoded() : item.getData();
+        }
+        if (element instanceof RLPList) return ((RLPList) element).getCachedEncoded();
+        return null;
+    }
+
+    /**
+     * copy the encoding of the element into an array of its own and parse it lazily, an unparsed lazy element
+     * stays unparsed. the copy has no parent, the element and the tree containing it are unchanged
+     */
+    static RLPElement detach(RLPElement element) {
+        if (element instanceof RLPItem) {
+            LazyByteArray data = ((RLPItem) element).getData();
+            return RLPItem.fromBytes(Arrays.copyOfRange(data.array(), data.offset(), data.offset() + data.size()));
+        }
+        if (!(element instanceof LazyElement || element instanceof RLPList)) return element;
+        LazyByteArray region = region(element);
+        byte[] copy = region != null ?
+                Arrays.copyOfRange(region.array(), region.offset(), region.offset() + region.size()) :
+                element.getEncoded().clone();
+        if (element instanceof LazyElement && ((LazyElement) element).getParsed() == null)
+            return RLPParser.opaque(copy);
+        RLPElement detached = RLPElement.fromEncoded(copy);
+        return element instanceof RLPList ? detached.asRLPList() : detached;
+    }
+
+    // a detached copy of an element kept by a decoded object if its input is more than ratio times larger than its encoding
+    static <T> T retain(T o, RLPContext context) {
+        int ratio = context.getDetachRatio();
+        if (ratio <= 0 || !(o instanceof RLPElement)) return o;
+        RLPElement element = (RLPElement) o;
+        LazyByteArray region = region(element);
+        long retained = region != null ? region.array().length : retainedBytes(element);
+        long logical = region != null ? region.size() : logicalBytes(element);
+        if (retained > (long) ratio * Math.max(logical, 1)) return (T) detach(element);
+        return o;
+    }
+}
@@ -0,0 +1,19 @@
+package org.tdf.rlp;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * marks a RLPElement typed field of a pojo which holds the element the pojo is decoded from,
+ * the field is not encoded itself. while the field is not null the pojo is encoded as the retained element,
+ * so re-encoding and hashing a decoded pojo reuse the source bytes.
+ * <p>
+ * the retained element is reused without comparing it to the fields, so the other encoded fields of the pojo
+ * should be final, which is checked, and arrays or collections held by them should not be modified.
+ */
+@Target({ElementType.FIELD})
+@Retention(RetentionPolicy.RUNTIME)
+public @interface RLPSource {
+}
@@ -13,8 +13,15 @@ final class RLPUtils {
     static Map<Class, List<Container>> CONTAINERS = new HashMap<>();
     static Map<Class, Constructor<?>> CONSTRUCTORS = new HashMap<>();
     static Map<Class, Object> STATIC_OBJECTS = new HashMap<>();
+    static Map<Class, Boolean> STATELESS = new HashMap<>();
+
+    private static final RLPEncoder<Object> OPAQUE_ENCODER =
+            o -> o instanceof byte[] ? RLPParser.opaque((byte[]) o) : (RLPElement) o;
+    private static final RLPDecoder<Object> OPAQUE_ELEMENT_DECODER = el -> el;
+    private static final RLPDecoder<Object> OPAQUE_BYTES_DECODER = RLPElement::getEncoded;
 
     static RLPEncoder getAnnotatedRLPEncoder(AnnotatedElement element) {
+        if (isOpaque(element)) return OPAQUE_ENCODER;
         if (!element.isAnnotationPresent(RLPEncoding.class)) {
             return null;
         }
@@ -26,6 +33,8 @@ final class RLPUtils {
     }
 
     static RLPDecoder getAnnotatedRLPDecoder(AnnotatedElement element) {
+        if (isOpaque(element))
+            return ((Field) element).getType() == byte[].class ? OPAQUE_BYTES_DECODER : OPAQUE_ELEMENT_DECODER;
         if (!element.isAnnotationPresent(RLPDecoding.class)) {
             return null;
         }
@@ -36,6 +45,36 @@ final class RLPUtils {
         return getInstance(decoder);
     }
 
+    private static boolean isOpaque(AnnotatedElement element) {
+        if (!element.isAnnotationPresent(RLPOpaque.class)) return false;
+        Field f = (Field) element;
+        if (f.getType() != RLPElement.class && f.getType() != byte[].class)
+            throw new RuntimeException("@RLPOpaque field " + f.getName() + " should be RLPElement or byte[]");
+        if (f.isAnnotationPresent(RLPEncoding.class) || f.isAnnotationPresent(RLPDecoding.class))
+            throw new RuntimeException(f.getName() + " is both annotated with @RLPOpaque and @RLPEncoding or @RLPDecoding");
+        return true;
+    }
+
+    // field annotated with @RLPSource, null if absent
+    static Field getSourceField(Class<?> clazz) {
+        Field res = null;
+        for (Field f : clazz.getDeclaredFields()) {
+            if (!f.isAnnotationPresent(RLPSource.class)) continue;
+            if (res != null) throw new RuntimeException("more than one @RLPSource field in " + clazz.getName());
+            if (Modifier.isStatic(f.getModifiers()) || f.getType() != RLPElement.class)
+                throw new RuntimeException("@RLPSource field " + f.getName() + " should be a non-static RLPElement field");
+            f.setAccessible(true);
+            res = f;
+        }
+        if (res == null) return null;
+        // a modified pojo would be encoded as its stale source
+        for (Field f : getRLPFields(clazz)) {
+            if (!Modifier.isFinal(f.getModifiers()))
+                throw new RuntimeException("field " + f.getName() + " of " + clazz.getName() + " with @RLPSource should be final");
+        }
+        return res;
+    }
+
     static List<Field> getRLPFields(Class clazz) {
         List<Field> fields = FIELDS.get(clazz);
         if (fields != null) return fields;
@@ -46,6 +85,11 @@ final class RLPUtils {
 
         List<Field> notIgnored = declaredFields
                 .filter(x -> {
+                    if (x.isAnnotationPresent(RLPSource.class)) {
+                        if (x.isAnnotationPresent(RLP.class))
+                            throw new RuntimeException(x.getName() + " is both annotated with @RLP and @RLPSource");
+                        return false;
+                    }
                     if (x.isAnnotationPresent(RLPIgnored.class)) {
                         if (x.isAnnotationPresent(RLP.class))
                             throw new RuntimeException(x.getName() + " is both annotated with @RLP and @RLPIgnored");
@@ -59,14 +103,13 @@ final class RLPUtils {
                 .sorted(Comparator.comparingInt(x -> x.getAnnotation(RLP.class).value()))
                 .collect(Collectors.toList());
         if (annotated.size() == 0) {
-            Map<Class, List<Field>> tmp = new HashMap<>(FIELDS);
-            tmp.put(
-                    clazz, notIgnored.stream().filter(x -> !Modifier.isTransient(x.getModifiers()))
+            List<Field> notTransient = notIgnored.stream().filter(x -> !Modifier.isTransient(x.getModifiers()))
                     .peek(x -> x.setAccessible(true))
-                    .collect(Collectors.toList())
-            );
+                    .collect(Collectors.toList());
+            Map<Class, List<Field>> tmp = new HashMap<>(FIELDS);
+            tmp.put(clazz, notTransient);
             FIELDS = tmp;
-            return notIgnored;
+            return notTransient;
         }
         for (int i = 0; i < annotated.size(); i++) {
             if (annotated.get(i).getAnnotation(RLP.class).value() != i)
@@ -104,6 +147,48 @@ final class RLPUtils {
         return getInstance(clazz);
     }
 
+    // whether the iteration order of source is already the ordering, so that sorting could be skipped
+    static boolean isSortedBy(Object source, Comparator ordering) {
+        Comparator c;
+        if (source instanceof SortedMap) {
+            c = ((SortedMap) source).comparator();
+        } else if (source instanceof SortedSet) {
+            c = ((SortedSet) source).comparator();
+        } else {
+            return false;
+        }
+        if (c == null) return ordering == Comparator.naturalOrder();
+        // comparators without instance fields are interchangeable
+        return c.equals(ordering) || (c.getClass() == ordering.getClass() && isStateless(c.getClass()));
+    }
+
+    private static boolean isStateless(Class clazz) {
+        Boolean stateless = STATELESS.get(clazz);
+        if (stateless != null) return stateless;
+        stateless = true;
+        for (Class c = clazz; c != null && c != Object.class; c = c.getSuperclass()) {
+            if (Arrays.stream(c.getDeclaredFields()).anyMatch(f -> !Modifier.isStatic(f.getModifiers()))) {
+                stateless = false;
+                break;
+            }
+        }
+        Map<Class, Boolean> copied = new HashMap<>(STATELESS);
+        copied.put(clazz, stateless);
+        STATELESS = copied;
+        return stateless;
+    }
+
+    // unsigned lexicographic comparison
+    static int compareBytes(byte[] a, byte[] b) {
+        int len = Math.min(a.length, b.length);
+        for (int i = 0; i < len; i++) {
+            int x = a[i] & 0xff;
+            int y = b[i] & 0xff;
+            if (x != y) return x - y;
+        }
+        return a.length - b.length;
+    }
+
     static boolean isContainer(Class clazz) {
         return Map.class.isAssignableFrom(clazz) || Collection.class.isAssignableFrom(clazz);
     }
@@ -0,0 +1,318 @@
+package org.tdf.rlp;
+
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.tdf.rlp.RLPConstants.*;
+
+/**
+ * writes a rlp tree into a ByteBuffer without materializing intermediate byte arrays.
+ * cached encodings of unmodified elements are copied as is, other lists are written header by header.
+ * <p>
+ * the tree is measured first, {@link #write(RLPElement, ByteBuffer)} must follow {@link #measure(RLPElement)}
+ * of the same tree.
+ * <p>
+ * {@link #gather(RLPElement)} splits the encoding into buffers for gathering writes instead,
+ * cached encodings are referenced rather than copied and only headers of modified lists and small leaves are fresh.
+ * {@link #digest(RLPElement, MessageDigest)} feeds the encoding into a MessageDigest in the same way.
+ */
+final class RLPWriter {
+    // slices smaller than this are copied into fresh bytes rather than referenced
+    static final int MIN_SLICE_SIZE = 32;
+    private static final int SCRATCH_SIZE = 256;
+    // prefix and length of payload size
+    private static final int MAX_HEADER_SIZE = 5;
+
+    // payload sizes of lists without cached encoding, in pre-order
+    private int[] sizes = new int[16];
+    private int count;
+    private int cursor;
+
+    // gathering state, pending is the last slice which is not added to buffers yet
+    private List<ByteBuffer> buffers;
+    private byte[] scratch;
+    private int scratchPosition;
+    private byte[] pending;
+    private int pendingOffset;
+    private int pendingLength;
+
+    static int headerSize(int payloadSize) {
+        return payloadSize < SIZE_THRESHOLD ? 1 : 1 + lengthOfLength(payloadSize);
+    }
+
+    private static int lengthOfLength(int length) {
+        return (Integer.SIZE - Integer.numberOfLeadingZeros(length) + 7) / Byte.SIZE;
+    }
+
+    static void writeHeader(ByteBuffer dst, int shortOffset, int longOffset, int payloadSize) {
+        if (payloadSize < SIZE_THRESHOLD) {
+            dst.put((byte) (shortOffset + payloadSize));
+            return;
+        }
+        int lenlen = lengthOfLength(payloadSize);
+        dst.put((byte) (longOffset + lenlen));
+        for (int i = lenlen - 1; i >= 0; i--) {
+            dst.put((byte) (payloadSize >>> (i * Byte.SIZE)));
+        }
+    }
+
+    // returns size of the header
+    static int writeHeader(byte[] dst, int offset, int shortOffset, int longOffset, int payloadSize) {
+        if (payloadSize < SIZE_THRESHOLD) {
+            dst[offset] = (byte) (shortOffset + payloadSize);
+            return 1;
+        }
+        int lenlen = lengthOfLength(payloadSize);
+        dst[offset] = (byte) (longOffset + lenlen);
+        for (int i = 1; i <= lenlen; i++) {
+            dst[offset + i] = (byte) (payloadSize >>> ((lenlen - i) * Byte.SIZE));
+        }
+        return 1 + lenlen;
+    }
+
+    // encoded size of the tree
+    int measure(RLPElement element) {
+        count = 0;
+        cursor = 0;
+        return sizeOf(element);
+    }
+
+    void write(RLPElement element, ByteBuffer dst) {
+        cursor = 0;
+        writeElement(element, dst);
+    }
+
+    private int sizeOf(RLPElement element) {
+        if (element instanceof LazyElement) {
+            LazyElement lazy = (LazyElement) element;
+            RLPElement parsed = lazy.getParsed();
+            if (parsed == null || !parsed.isRLPList()) return lazy.getCachedEncoded().size();
+            return sizeOf(parsed);
+        }
+        if (element instanceof RLPItem) {
+            RLPItem item = (RLPItem) element;
+            LazyByteArray encoded = item.getCachedEncoded();
+            if (encoded != null) return encoded.size();
+            LazyByteArray data = item.getData();
+            int size = data.size();
+            if (size == 1 && (data.first() & 0xff) < OFFSET_SHORT_ITEM) return 1;
+            return headerSize(size) + size;
+        }
+        if (element instanceof RLPList) {
+            RLPList list = (RLPList) element;
+            LazyByteArray encoded = list.getCachedEncoded();
+            if (encoded != null) return encoded.size();
+            int slot = count++;
+            if (slot == sizes.length) sizes = Arrays.copyOf(sizes, slot * 2);
+            int payload = 0;
+            for (RLPElement e : list) {
+                payload += sizeOf(e);
+            }
+            sizes[slot] = payload;
+            return headerSize(payload) + payload;
+        }
+        return element.getEncoded().length;
+    }
+
+    private void writeElement(RLPElement element, ByteBuffer dst) {
+        if (element instanceof LazyElement) {
+            LazyElement lazy = (LazyElement) element;
+            RLPElement parsed = lazy.getParsed();
+            if (parsed == null || !parsed.isRLPList()) {
+                lazy.getCachedEncoded().writeTo(dst);
+                return;
+            }
+            writeElement(parsed, dst);
+            return;
+        }
+        if (element instanceof RLPItem) {
+            RLPItem item = (RLPItem) element;
+            LazyByteArray encoded = item.getCachedEncoded();
+            if (encoded != null) {
+                encoded.writeTo(dst);
+                return;
+            }
+            LazyByteArray data = item.getData();
+            int size = data.size();
+            if (size == 1 && (data.first() & 0xff) < OFFSET_SHORT_ITEM) {
+                dst.put(data.first());
+                return;
+            }
+            writeHeader(dst, OFFSET_SHORT_ITEM, OFFSET_LONG_ITEM, size);
+            data.writeTo(dst);
+            return;
+        }
+        if (element instanceof RLPList) {
+            RLPList list = (RLPList) element;
+            LazyByteArray encoded = list.getCachedEncoded();
+            if (encoded != null) {
+                encoded.writeTo(dst);
+                return;
+            }
+            writeHeader(dst, OFFSET_SHORT_LIST, OFFSET_LONG_LIST, sizes[cursor++]);
+            for (RLPElement e : list) {
+                writeElement(e, dst);
+            }
+            return;
+        }
+        dst.put(element.getEncoded());
+    }
+
+    void digest(RLPElement element, MessageDigest digest) {
+        measure(element);
+        digestElement(element, digest, new byte[MAX_HEADER_SIZE]);
+    }
+
+    private void digestElement(RLPElement element, MessageDigest digest, byte[] header) {
+        if (element instanceof LazyElement) {
+            LazyElement lazy = (LazyElement) element;
+            RLPElement parsed = lazy.getParsed();
+            if (parsed == null || !parsed.isRLPList()) {
+                lazy.getCachedEncoded().digestTo(digest);
+                return;
+            }
+            digestElement(parsed, digest, header);
+            return;
+        }
+        if (element instanceof RLPItem) {
+            RLPItem item = (RLPItem) element;
+            LazyByteArray encoded = item.getCachedEncoded();
+            if (encoded != null) {
+                encoded.digestTo(digest);
+                return;
+            }
+            LazyByteArray data = item.getData();
+            int size = data.size();
+            if (size == 1 && (data.first() & 0xff) < OFFSET_SHORT_ITEM) {
+                digest.update(data.first());
+                return;
+            }
+            digest.update(header, 0, writeHeader(header, 0, OFFSET_SHORT_ITEM, OFFSET_LONG_ITEM, size));
+            data.digestTo(digest);
+            return;
+        }
+        if (element instanceof RLPList) {
+            RLPList list = (RLPList) element;
+            LazyByteArray encoded = list.getCachedEncoded();
+            if (encoded != null) {
+                encoded.digestTo(digest);
+                return;
+            }
+            digest.update(header, 0, writeHeader(header, 0, OFFSET_SHORT_LIST, OFFSET_LONG_LIST, sizes[cursor++]));
+            for (RLPElement e : list) {
+                digestElement(e, digest, header);
+            }
+            return;
+        }
+        digest.update(element.getEncoded());
+    }
+
+    ByteBuffer[] gather(RLPElement element) {
+        measure(element);
+        buffers = new ArrayList<>();
+        gatherElement(element);
+        flush();
+        return buffers.toArray(new ByteBuffer[0]);
+    }
+
+    private void gatherElement(RLPElement element) {
+        if (element instanceof LazyElement) {
+            LazyElement lazy = (LazyElement) element;
+            RLPElement parsed = lazy.getParsed();
+            if (parsed == null || !parsed.isRLPList()) {
+                slice(lazy.getCachedEncoded());
+                return;
+            }
+            gatherElement(parsed);
+            return;
+        }
+        if (element instanceof RLPItem) {
+            RLPItem item = (RLPItem) element;
+            LazyByteArray encoded = item.getCachedEncoded();
+            if (encoded != null) {
+                slice(encoded);
+                return;
+            }
+            LazyByteArray data = item.getData();
+            int size = data.size();
+            if (size == 1 && (data.first() & 0xff) < OFFSET_SHORT_ITEM) {
+                int offset = reserve(1);
+                scratch[offset] = data.first();
+                return;
+            }
+            header(OFFSET_SHORT_ITEM, OFFSET_LONG_ITEM, size);
+            slice(data);
+            return;
+        }
+        if (element instanceof RLPList) {
+            RLPList list = (RLPList) element;
+            LazyByteArray encoded = list.getCachedEncoded();
+            if (encoded != null) {
+                slice(encoded);
+                return;
+            }
+            header(OFFSET_SHORT_LIST, OFFSET_LONG_LIST, sizes[cursor++]);
+            for (RLPElement e : list) {
+                gatherElement(e);
+            }
+            return;
+        }
+        byte[] encoded = element.getEncoded();
+        slice(encoded, 0, encoded.length);
+    }
+
+    private void header(int shortOffset, int longOffset, int payloadSize) {
+        // reserve() may replace scratch
+        int offset = reserve(headerSize(payloadSize));
+        writeHeader(scratch, offset, shortOffset, longOffset, payloadSize);
+    }
+
+    private void slice(LazyByteArray data) {
+        slice(data.array(), data.offset(), data.size());
+    }
+
+    private void slice(byte[] array, int offset, int length) {
+        if (length == 0) return;
+        if (array == pending && offset == pendingOffset + pendingLength) {
+            pendingLength += length;
+            return;
+        }
+        if (length < MIN_SLICE_SIZE) {
+            int dst = reserve(length);
+            System.arraycopy(array, offset, scratch, dst, length);
+            return;
+        }
+        flush();
+        pending = array;
+        pendingOffset = offset;
+        pendingLength = length;
+    }
+
+    // allocate fresh bytes in scratch, returns the offset
+    private int reserve(int length) {
+        if (scratch == null || scratchPosition + length > scratch.length) {
+            scratch = new byte[Math.max(SCRATCH_SIZE, length)];
+            scratchPosition = 0;
+        }
+        int offset = scratchPosition;
+        scratchPosition += length;
+        if (pending == scratch && offset == pendingOffset + pendingLength) {
+            pendingLength += length;
+            return offset;
+        }
+        flush();
+        pending = scratch;
+        pendingOffset = offset;
+        pendingLength = length;
+        return offset;
+    }
+
+    private void flush() {
+        if (pending == null) return;
+        buffers.add(ByteBuffer.wrap(pending, pendingOffset, pendingLength).slice());
+        pending = null;
+    }
+}
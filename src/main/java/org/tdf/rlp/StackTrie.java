@@ -0,0 +1,178 @@
+package org.tdf.rlp;
+
+import java.util.Arrays;
+
+import static org.tdf.rlp.Trie.toHexPrefix;
+import static org.tdf.rlp.Trie.toNibbles;
+
+/**
+ * computes the root of a merkle patricia trie from keys inserted in ascending order.
+ * only the right-most path is kept, once a key diverges from a subtree the subtree is complete,
+ * it is hashed (or inlined if shorter than 32 bytes) and its nodes are released.
+ * keys should be prefix-free, so branches never hold values.
+ */
+final class StackTrie {
+    private static final int EMPTY = 0;
+    private static final int LEAF = 1;
+    private static final int EXTENSION = 2;
+    private static final int BRANCH = 3;
+    // subtree replaced by its reference
+    private static final int HASHED = 4;
+
+    private final Node root = new Node();
+    private byte[] lastKey;
+
+    void insert(byte[] key, byte[] value) {
+        if (lastKey != null && RLPUtils.compareBytes(lastKey, key) >= 0)
+            throw new RuntimeException("keys should be inserted in ascending order");
+        lastKey = key;
+        insert(root, toNibbles(key), 0, value);
+    }
+
+    byte[] hash() {
+        if (root.type == EMPTY) return Trie.EMPTY_ROOT;
+        return root.encode().keccak256();
+    }
+
+    private static void insert(Node n, byte[] key, int pos, byte[] value) {
+        switch (n.type) {
+            case EMPTY: {
+                n.setLeaf(Arrays.copyOfRange(key, pos, key.length), value);
+                return;
+            }
+            case BRANCH: {
+                if (pos == key.length) throw new RuntimeException("keys should be prefix-free");
+                int index = key[pos];
+                // the previous sibling is complete
+                for (int i = index - 1; i >= 0; i--) {
+                    if (n.children[i] == null) continue;
+                    n.children[i].seal();
+                    break;
+                }
+                if (n.children[index] == null) {
+                    Node leaf = new Node();
+                    leaf.setLeaf(Arrays.copyOfRange(key, pos + 1, key.length), value);
+                    n.children[index] = leaf;
+                    return;
+                }
+                insert(n.children[index], key, pos + 1, value);
+                return;
+            }
+            case EXTENSION: {
+                int common = common(n.path, key, pos);
+                if (common == n.path.length) {
+                    insert(n.child, key, pos + common, value);
+                    return;
+                }
+                if (pos + common == key.length) throw new RuntimeException("keys should be prefix-free");
+                // the existing subtree diverges at common, it is complete
+                Node rest;
+                if (common + 1 < n.path.length) {
+                    rest = new Node();
+                    rest.setExtension(Arrays.copyOfRange(n.path, common + 1, n.path.length), n.child);
+                } else {
+                    rest = n.child;
+                }
+                rest.seal();
+                split(n, common, n.path[common], rest, key, pos, value);
+                return;
+            }
+            case LEAF: {
+                int common = common(n.path, key, pos);
+                if (common == n.path.length || pos + common == key.length)
+                    throw new RuntimeException("keys should be prefix-free");
+                Node rest = new Node();
+                rest.setLeaf(Arrays.copyOfRange(n.path, common + 1, n.path.length), n.value);
+                rest.seal();
+                split(n, common, n.path[common], rest, key, pos, value);
+                return;
+            }
+            default:
+                throw new RuntimeException("insert into a sealed subtree");
+        }
+    }
+
+    // replace n with a branch at depth common of its path holding rest and a new leaf
+    private static void split(Node n, int common, int restIndex, Node rest, byte[] key, int pos, byte[] value) {
+        Node branch = common == 0 ? n : new Node();
+        byte[] prefix = Arrays.copyOf(n.path, common);
+        branch.setBranch();
+        branch.children[restIndex] = rest;
+        Node leaf = new Node();
+        leaf.setLeaf(Arrays.copyOfRange(key, pos + common + 1, key.length), value);
+        branch.children[key[pos + common]] = leaf;
+        if (common > 0) n.setExtension(prefix, branch);
+    }
+
+    private static int common(byte[] path, byte[] key, int pos) {
+        int n = Math.min(path.length, key.length - pos);
+        for (int i = 0; i < n; i++) {
+            if (path[i] != key[pos + i]) return i;
+        }
+        return n;
+    }
+
+    private static final class Node {
+        private int type;
+        private byte[] path;
+        private byte[] value;
+        private Node child;
+        private Node[] children;
+        private RLPElement reference;
+
+        private void setLeaf(byte[] path, byte[] value) {
+            this.type = LEAF;
+            this.path = path;
+            this.value = value;
+        }
+
+        private void setExtension(byte[] path, Node child) {
+            this.type = EXTENSION;
+            this.path = path;
+            this.child = child;
+            this.value = null;
+            this.children = null;
+        }
+
+        private void setBranch() {
+            this.type = BRANCH;
+            this.children = new Node[16];
+            this.path = null;
+            this.value = null;
+            this.child = null;
+        }
+
+        private RLPList encode() {
+            switch (type) {
+                case LEAF:
+                    return RLPList.of(RLPItem.fromBytes(toHexPrefix(path, true)), RLPItem.fromBytes(value));
+                case EXTENSION:
+                    return RLPList.of(RLPItem.fromBytes(toHexPrefix(path, false)), child.seal());
+                case BRANCH: {
+                    RLPList list = RLPList.createEmpty(17);
+                    for (Node c : children) {
+                        list.add(c == null ? RLPItem.NULL : c.seal());
+                    }
+                    list.add(RLPItem.NULL);
+                    return list;
+                }
+                default:
+                    throw new RuntimeException("unexpected node type " + type);
+            }
+        }
+
+        // replace the subtree by its reference, the hash is computed while encoding
+        private RLPElement seal() {
+            if (type == HASHED) return reference;
+            RLPList list = encode();
+            RLPWriter writer = new RLPWriter();
+            reference = writer.measure(list) < 32 ? list : RLPItem.fromBytes(list.keccak256());
+            type = HASHED;
+            path = null;
+            value = null;
+            child = null;
+            children = null;
+            return reference;
+        }
+    }
+}
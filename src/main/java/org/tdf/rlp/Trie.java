@@ -0,0 +1,504 @@
+package org.tdf.rlp;
+
+import lombok.NonNull;
+
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * merkle patricia trie as specified in the ethereum yellow paper, nodes are encoded as rlp lists with
+ * hex-prefix encoded paths, nodes whose encoding is shorter than 32 bytes are inlined into their parent.
+ * <p>
+ * every node caches its rlp list and hash, a modification creates new nodes along the modified path only,
+ * so other nodes keep their caches. nodes are loaded from the store lazily and written by {@link #commit()}.
+ * not thread safe.
+ */
+public final class Trie {
+    public static final byte[] EMPTY_ROOT = Keccak256.hash(RLPItem.NULL.getEncoded());
+
+    private static final int HASH_SIZE = 32;
+    private static final int BRANCH_SIZE = 17;
+    private static final byte[] EMPTY_PATH = new byte[0];
+
+    private final TrieStore store;
+    // null for empty trie
+    private Node root;
+
+    public Trie(@NonNull TrieStore store) {
+        this.store = store;
+    }
+
+    public Trie(@NonNull TrieStore store, @NonNull byte[] rootHash) {
+        this.store = store;
+        if (!Arrays.equals(rootHash, EMPTY_ROOT)) this.root = new HashNode(rootHash);
+    }
+
+    public byte[] get(@NonNull byte[] key) {
+        byte[] path = toNibbles(key);
+        int pos = 0;
+        Node n = root;
+        while (n != null) {
+            n = resolve(n);
+            if (n instanceof Leaf) {
+                Leaf leaf = (Leaf) n;
+                return matches(leaf.path, path, pos) == leaf.path.length && pos + leaf.path.length == path.length ?
+                        leaf.value : null;
+            }
+            if (n instanceof Extension) {
+                Extension ext = (Extension) n;
+                if (matches(ext.path, path, pos) != ext.path.length) return null;
+                pos += ext.path.length;
+                n = ext.child;
+                continue;
+            }
+            Branch branch = (Branch) n;
+            if (pos == path.length) return branch.value;
+            n = branch.children[path[pos++]];
+        }
+        return null;
+    }
+
+    // empty value removes the key
+    public void put(@NonNull byte[] key, @NonNull byte[] value) {
+        if (value.length == 0) {
+            remove(key);
+            return;
+        }
+        root = insert(root, toNibbles(key), 0, value);
+    }
+
+    public void remove(@NonNull byte[] key) {
+        root = delete(root, toNibbles(key), 0);
+    }
+
+    public boolean isEmpty() {
+        return root == null;
+    }
+
+    public byte[] getRootHash() {
+        return root == null ? EMPTY_ROOT : root.hash();
+    }
+
+    /**
+     * write nodes created since the last commit to the store, nodes shorter than 32 bytes are inlined
+     * and only the root is stored regardless of its size
+     *
+     * @return root hash
+     */
+    public byte[] commit() {
+        if (root == null) return EMPTY_ROOT;
+        commit(root, true);
+        return root.hash();
+    }
+
+    /**
+     * merkle proof of key, the encodings of nodes referred by hash along the path of key starting from the root.
+     * the proof is an inclusion proof if key is present and an exclusion proof otherwise
+     */
+    public byte[][] prove(@NonNull byte[] key) {
+        List<byte[]> proof = new ArrayList<>();
+        byte[] path = toNibbles(key);
+        int pos = 0;
+        Node n = root;
+        while (n != null) {
+            n = resolve(n);
+            byte[] encoded = n.getRLP().getEncoded();
+            // the root is referred by hash regardless of its size
+            if (proof.isEmpty() || encoded.length >= HASH_SIZE) proof.add(encoded);
+            if (n instanceof Leaf) break;
+            if (n instanceof Extension) {
+                Extension ext = (Extension) n;
+                if (matches(ext.path, path, pos) != ext.path.length) break;
+                pos += ext.path.length;
+                n = ext.child;
+                continue;
+            }
+            if (pos == path.length) break;
+            n = ((Branch) n).children[path[pos++]];
+        }
+        return proof.toArray(new byte[0][]);
+    }
+
+    /**
+     * verify a proof generated by {@link #prove(byte[])} against rootHash without rebuilding the trie,
+     * nodes are parsed lazily and only the elements on the path are read.
+     *
+     * @return the value of key, or null if the proof shows key is absent
+     * @throws RuntimeException if the proof is invalid
+     */
+    public static byte[] verifyProof(@NonNull byte[] rootHash, @NonNull byte[] key, @NonNull byte[][] proof) {
+        if (proof.length == 0 && Arrays.equals(rootHash, EMPTY_ROOT)) return null;
+        byte[] path = toNibbles(key);
+        int pos = 0;
+        int next = 0;
+        // hash of the next node, null if the next node is inlined
+        LazyByteArray expected = new LazyByteArray(rootHash);
+        RLPElement node = null;
+        byte[] value;
+        while (true) {
+            if (expected != null) {
+                if (next == proof.length) throw new RuntimeException("incomplete proof");
+                byte[] encoded = proof[next++];
+                if (!expected.contentEquals(Keccak256.hash(encoded))) throw new RuntimeException("invalid proof, hash mismatch");
+                node = RLPElement.fromEncoded(encoded);
+            }
+            RLPList list = node.asRLPList();
+            RLPElement ref;
+            if (list.size() == BRANCH_SIZE) {
+                if (pos == path.length) {
+                    value = list.get(BRANCH_SIZE - 1).asBytes();
+                    break;
+                }
+                ref = list.get(path[pos++]);
+            } else if (list.size() == 2) {
+                LazyByteArray encodedPath = list.get(0).asRLPItem().getData();
+                if (encodedPath.size() == 0) throw new RuntimeException("invalid hex prefix");
+                int length = matchHexPrefix(encodedPath, path, pos);
+                if ((encodedPath.first() & 0x20) != 0) {
+                    value = length >= 0 && pos + length == path.length ? list.get(1).asBytes() : null;
+                    break;
+                }
+                if (length < 0) {
+                    value = null;
+                    break;
+                }
+                pos += length;
+                ref = list.get(1);
+            } else {
+                throw new RuntimeException("invalid trie node, size " + list.size());
+            }
+            if (ref.isRLPList()) {
+                node = ref;
+                expected = null;
+                continue;
+            }
+            expected = ref.asRLPItem().getData();
+            if (expected.size() == 0) {
+                value = null;
+                break;
+            }
+            if (expected.size() != HASH_SIZE) throw new RuntimeException("invalid trie node reference");
+        }
+        if (next != proof.length) throw new RuntimeException("invalid proof, unused nodes");
+        return value == null || value.length == 0 ? null : value;
+    }
+
+    private void commit(Node n, boolean isRoot) {
+        if (n == null || n.persisted) return;
+        if (n instanceof Extension) commit(((Extension) n).child, false);
+        if (n instanceof Branch) {
+            for (Node child : ((Branch) n).children) {
+                commit(child, false);
+            }
+        }
+        byte[] encoded = n.getRLP().getEncoded();
+        if (isRoot || encoded.length >= HASH_SIZE) store.put(n.hash(), encoded);
+        n.persisted = true;
+    }
+
+    private Node resolve(Node n) {
+        if (!(n instanceof HashNode)) return n;
+        HashNode h = (HashNode) n;
+        if (h.resolved != null) return h.resolved;
+        byte[] encoded = store.get(h.hash);
+        if (encoded == null) throw new RuntimeException("trie node " + new BigInteger(1, h.hash).toString(16) + " not found");
+        Node res = decodeNode(RLPElement.fromEncoded(encoded));
+        res.hash = h.hash;
+        h.resolved = res;
+        return res;
+    }
+
+    private Node insert(Node n, byte[] path, int pos, byte[] value) {
+        if (n == null) return new Leaf(Arrays.copyOfRange(path, pos, path.length), value);
+        n = resolve(n);
+        int remaining = path.length - pos;
+        if (n instanceof Branch) {
+            Branch copy = ((Branch) n).copy();
+            if (remaining == 0) {
+                copy.value = value;
+            } else {
+                copy.children[path[pos]] = insert(copy.children[path[pos]], path, pos + 1, value);
+            }
+            return copy;
+        }
+        byte[] nodePath = n instanceof Leaf ? ((Leaf) n).path : ((Extension) n).path;
+        int common = matches(nodePath, path, pos);
+        if (n instanceof Leaf && common == nodePath.length && common == remaining) {
+            return new Leaf(nodePath, value);
+        }
+        if (n instanceof Extension && common == nodePath.length) {
+            Extension ext = (Extension) n;
+            return new Extension(nodePath, insert(ext.child, path, pos + common, value));
+        }
+        // split at the first different nibble
+        Branch branch = new Branch();
+        if (n instanceof Leaf) {
+            Leaf leaf = (Leaf) n;
+            if (common == nodePath.length) {
+                branch.value = leaf.value;
+            } else {
+                branch.children[nodePath[common]] = new Leaf(Arrays.copyOfRange(nodePath, common + 1, nodePath.length), leaf.value);
+            }
+        } else {
+            Extension ext = (Extension) n;
+            branch.children[nodePath[common]] = common + 1 == nodePath.length ?
+                    ext.child :
+                    new Extension(Arrays.copyOfRange(nodePath, common + 1, nodePath.length), ext.child);
+        }
+        if (common == remaining) {
+            branch.value = value;
+        } else {
+            branch.children[path[pos + common]] = new Leaf(Arrays.copyOfRange(path, pos + common + 1, path.length), value);
+        }
+        return common == 0 ? branch : new Extension(Arrays.copyOf(nodePath, common), branch);
+    }
+
+    // returns n itself if the key is absent
+    private Node delete(Node n, byte[] path, int pos) {
+        if (n == null) return null;
+        Node resolved = resolve(n);
+        if (resolved instanceof Leaf) {
+            Leaf leaf = (Leaf) resolved;
+            return matches(leaf.path, path, pos) == leaf.path.length && pos + leaf.path.length == path.length ? null : n;
+        }
+        if (resolved instanceof Extension) {
+            Extension ext = (Extension) resolved;
+            if (matches(ext.path, path, pos) != ext.path.length) return n;
+            Node child = delete(ext.child, path, pos + ext.path.length);
+            if (child == ext.child) return n;
+            return child == null ? null : join(ext.path, child);
+        }
+        Branch branch = (Branch) resolved;
+        Branch copy;
+        if (pos == path.length) {
+            if (branch.value == null) return n;
+            copy = branch.copy();
+            copy.value = null;
+        } else {
+            Node child = delete(branch.children[path[pos]], path, pos + 1);
+            if (child == branch.children[path[pos]]) return n;
+            copy = branch.copy();
+            copy.children[path[pos]] = child;
+        }
+        int only = -1;
+        for (int i = 0; i < copy.children.length; i++) {
+            if (copy.children[i] == null) continue;
+            if (only >= 0) return copy;
+            only = i;
+        }
+        if (only < 0) return copy.value == null ? null : new Leaf(EMPTY_PATH, copy.value);
+        if (copy.value != null) return copy;
+        return join(new byte[]{(byte) only}, copy.children[only]);
+    }
+
+    // node at path prefix followed by child, merged with the path of child
+    private Node join(byte[] prefix, Node child) {
+        child = resolve(child);
+        if (child instanceof Leaf) {
+            return new Leaf(concat(prefix, ((Leaf) child).path), ((Leaf) child).value);
+        }
+        if (child instanceof Extension) {
+            return new Extension(concat(prefix, ((Extension) child).path), ((Extension) child).child);
+        }
+        return new Extension(prefix, child);
+    }
+
+    private static Node decodeNode(RLPElement element) {
+        RLPList list = element.asRLPList();
+        Node n;
+        if (list.size() == BRANCH_SIZE) {
+            Branch branch = new Branch();
+            for (int i = 0; i < BRANCH_SIZE - 1; i++) {
+                branch.children[i] = decodeReference(list.get(i));
+            }
+            byte[] value = list.get(BRANCH_SIZE - 1).asBytes();
+            branch.value = value.length == 0 ? null : value;
+            n = branch;
+        } else if (list.size() == 2) {
+            byte[] encodedPath = list.get(0).asBytes();
+            if (encodedPath.length == 0) throw new RuntimeException("invalid hex prefix");
+            byte[] path = fromHexPrefix(encodedPath);
+            n = (encodedPath[0] & 0x20) != 0 ?
+                    new Leaf(path, list.get(1).asBytes()) :
+                    new Extension(path, decodeReference(list.get(1)));
+        } else {
+            throw new RuntimeException("invalid trie node, size " + list.size());
+        }
+        n.rlp = list;
+        n.persisted = true;
+        return n;
+    }
+
+    private static Node decodeReference(RLPElement element) {
+        if (element.isRLPList()) return decodeNode(element);
+        byte[] ref = element.asBytes();
+        if (ref.length == 0) return null;
+        if (ref.length != HASH_SIZE) throw new RuntimeException("invalid trie node reference");
+        return new HashNode(ref);
+    }
+
+    static byte[] toNibbles(byte[] key) {
+        byte[] res = new byte[key.length * 2];
+        for (int i = 0; i < key.length; i++) {
+            res[i * 2] = (byte) ((key[i] >> 4) & 0x0f);
+            res[i * 2 + 1] = (byte) (key[i] & 0x0f);
+        }
+        return res;
+    }
+
+    // flag nibble is 2 for leaf plus 1 for odd length, odd paths start in the flag byte
+    static byte[] toHexPrefix(byte[] path, boolean leaf) {
+        boolean odd = path.length % 2 == 1;
+        byte[] res = new byte[path.length / 2 + 1];
+        int flag = (leaf ? 2 : 0) + (odd ? 1 : 0);
+        res[0] = (byte) (flag << 4);
+        int i = 0;
+        if (odd) res[0] |= path[i++];
+        for (int j = 1; i < path.length; j++, i += 2) {
+            res[j] = (byte) (path[i] << 4 | path[i + 1]);
+        }
+        return res;
+    }
+
+    static byte[] fromHexPrefix(byte[] encoded) {
+        boolean odd = (encoded[0] & 0x10) != 0;
+        byte[] res = new byte[(encoded.length - 1) * 2 + (odd ? 1 : 0)];
+        int i = 0;
+        if (odd) res[i++] = (byte) (encoded[0] & 0x0f);
+        for (int j = 1; j < encoded.length; j++) {
+            res[i++] = (byte) ((encoded[j] >> 4) & 0x0f);
+            res[i++] = (byte) (encoded[j] & 0x0f);
+        }
+        return res;
+    }
+
+    // length of the hex-prefix encoded path if path[pos:] starts with it, otherwise -1
+    private static int matchHexPrefix(LazyByteArray encoded, byte[] path, int pos) {
+        byte[] raw = encoded.array();
+        int offset = encoded.offset();
+        boolean odd = (raw[offset] & 0x10) != 0;
+        int length = (encoded.size() - 1) * 2 + (odd ? 1 : 0);
+        if (length > path.length - pos) return -1;
+        int i = pos;
+        if (odd && path[i++] != (raw[offset] & 0x0f)) return -1;
+        for (int j = offset + 1; j < offset + encoded.size(); j++) {
+            if (path[i++] != ((raw[j] >> 4) & 0x0f) || path[i++] != (raw[j] & 0x0f)) return -1;
+        }
+        return length;
+    }
+
+    // length of common prefix of nodePath and path[pos:]
+    private static int matches(byte[] nodePath, byte[] path, int pos) {
+        int n = Math.min(nodePath.length, path.length - pos);
+        for (int i = 0; i < n; i++) {
+            if (nodePath[i] != path[pos + i]) return i;
+        }
+        return n;
+    }
+
+    private static byte[] concat(byte[] a, byte[] b) {
+        byte[] res = Arrays.copyOf(a, a.length + b.length);
+        System.arraycopy(b, 0, res, a.length, b.length);
+        return res;
+    }
+
+    private abstract static class Node {
+        // cached encoding and keccak-256 of the encoding
+        RLPList rlp;
+        byte[] hash;
+        // written to or loaded from the store
+        boolean persisted;
+
+        abstract RLPList encode();
+
+        RLPList getRLP() {
+            if (rlp == null) rlp = encode();
+            return rlp;
+        }
+
+        byte[] hash() {
+            if (hash == null) hash = Keccak256.hash(getRLP().getEncoded());
+            return hash;
+        }
+
+        // element referring to this node in its parent, inlined if shorter than a hash
+        RLPElement reference() {
+            RLPList l = getRLP();
+            return l.getEncoded().length < HASH_SIZE ? l : RLPItem.fromBytes(hash());
+        }
+    }
+
+    private static final class Leaf extends Node {
+        private final byte[] path;
+        private final byte[] value;
+
+        private Leaf(byte[] path, byte[] value) {
+            this.path = path;
+            this.value = value;
+        }
+
+        @Override
+        RLPList encode() {
+            return RLPList.of(RLPItem.fromBytes(toHexPrefix(path, true)), RLPItem.fromBytes(value));
+        }
+    }
+
+    private static final class Extension extends Node {
+        private final byte[] path;
+        private final Node child;
+
+        private Extension(byte[] path, Node child) {
+            this.path = path;
+            this.child = child;
+        }
+
+        @Override
+        RLPList encode() {
+            return RLPList.of(RLPItem.fromBytes(toHexPrefix(path, false)), child.reference());
+        }
+    }
+
+    private static final class Branch extends Node {
+        private final Node[] children = new Node[BRANCH_SIZE - 1];
+        private byte[] value;
+
+        private Branch copy() {
+            Branch b = new Branch();
+            System.arraycopy(children, 0, b.children, 0, children.length);
+            b.value = value;
+            return b;
+        }
+
+        @Override
+        RLPList encode() {
+            RLPList list = RLPList.createEmpty(BRANCH_SIZE);
+            for (Node child : children) {
+                list.add(child == null ? RLPItem.NULL : child.reference());
+            }
+            list.add(value == null ? RLPItem.NULL : RLPItem.fromBytes(value));
+            return list;
+        }
+    }
+
+    // node not loaded yet
+    private static final class HashNode extends Node {
+        private Node resolved;
+
+        private HashNode(byte[] hash) {
+            this.hash = hash;
+            this.persisted = true;
+        }
+
+        @Override
+        RLPList encode() {
+            throw new RuntimeException("unresolved trie node");
+        }
+
+        @Override
+        RLPElement reference() {
+            return RLPItem.fromBytes(hash);
+        }
+    }
+}
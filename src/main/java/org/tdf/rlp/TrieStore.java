@@ -0,0 +1,13 @@
+package org.tdf.rlp;
+
+/**
+ * key-value backend of {@link Trie}, nodes are stored by their keccak-256 hash
+ */
+public interface TrieStore {
+    /**
+     * @return null if absent
+     */
+    byte[] get(byte[] key);
+
+    void put(byte[] key, byte[] value);
+}
@@ -0,0 +1,332 @@
+package org.tdf.rlp;
+
+import java.lang.reflect.Array;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.math.BigInteger;
+import java.util.*;
+
+import static org.tdf.rlp.RLPItem.NULL;
+import static org.tdf.rlp.RLPItem.ONE;
+
+/**
+ * encoding and decoding strategy of a runtime class, resolved once and cached in a dispatch table
+ * so that encoding or decoding a value is a single lookup instead of a chain of type checks
+ */
+final class TypeCodec {
+    private static Map<Class, TypeCodec> CODECS = new HashMap<>();
+
+    interface Encoder {
+        RLPElement encode(Object o, RLPContext context);
+    }
+
+    interface Decoder {
+        Object decode(RLPElement element, RLPContext context);
+    }
+
+    private final Class<?> type;
+
+    // values of this type may be memoized when encoding with shared subtrees, false for scalars
+    private final boolean shareable;
+
+    // codecs specified by @RLPEncoding or @RLPDecoding on the class, take precedence over RLPContext,
+    // final so codecs shared through the dispatch table are seen resolved by every thread
+    private final RLPEncoder fixedEncoder;
+    private final RLPDecoder fixedDecoder;
+
+    // resolved lazily and separately, a class may be encodable but not decodable
+    private Encoder encoder;
+    private Decoder decoder;
+
+    private TypeCodec(Class<?> type) {
+        this.type = type;
+        this.shareable = !(type == String.class || type == byte[].class || type == Boolean.class
+                || type == Character.class || Number.class.isAssignableFrom(type) || type.isEnum());
+        this.fixedEncoder = RLPUtils.getAnnotatedRLPEncoder(type);
+        if (type == RLPElement.class) {
+            this.fixedDecoder = el -> el;
+        } else if (type == RLPList.class) {
+            this.fixedDecoder = RLPElement::asRLPList;
+        } else if (type == RLPItem.class) {
+            this.fixedDecoder = RLPElement::asRLPItem;
+        } else {
+            this.fixedDecoder = RLPUtils.getAnnotatedRLPDecoder(type);
+        }
+    }
+
+    static TypeCodec get(Class<?> clazz) {
+        TypeCodec codec = CODECS.get(clazz);
+        if (codec != null) return codec;
+        codec = new TypeCodec(clazz);
+        Map<Class, TypeCodec> copied = new HashMap<>(CODECS);
+        copied.put(clazz, codec);
+        CODECS = copied;
+        return codec;
+    }
+
+    RLPElement encode(Object o, RLPContext context) {
+        if (shareable && context.isSharedSubtrees() && context instanceof RLPContextImpl)
+            return encodeShared(o, (RLPContextImpl) context);
+        return encodeUnshared(o, context);
+    }
+
+    private RLPElement encodeShared(Object o, RLPContextImpl context) {
+        // the first shareable object of an encoding call starts the memo
+        if (context.getSubtrees() == null) context = context.withSubtrees();
+        Map<Object, RLPElement> subtrees = context.getSubtrees();
+        RLPElement el = subtrees.get(o);
+        if (el != null) return el;
+        el = encodeUnshared(o, context);
+        subtrees.put(o, el);
+        return el;
+    }
+
+    private RLPElement encodeUnshared(Object o, RLPContext context) {
+        if (fixedEncoder != null) return fixedEncoder.encode(o);
+        RLPEncoder e = context.getEncoder(type);
+        if (e != null) return e.encode(o);
+        if (encoder == null) encoder = defaultEncoder(type);
+        return encoder.encode(o, context);
+    }
+
+    Object decode(RLPElement element, RLPContext context) {
+        if (fixedDecoder != null) return RLPRetention.retain(fixedDecoder.decode(element), context);
+        RLPDecoder d = context.getDecoder(type);
+        if (d != null) return d.decode(element);
+        if (decoder == null) decoder = defaultDecoder(type);
+        return decoder.decode(element, context);
+    }
+
+    private static Encoder defaultEncoder(Class<?> clazz) {
+        if (clazz == Boolean.class) return (o, c) -> ((Boolean) o) ? ONE : NULL;
+        if (BigInteger.class.isAssignableFrom(clazz)) return (o, c) -> RLPItem.fromBigInteger((BigInteger) o);
+        if (clazz == byte[].class) return (o, c) -> RLPItem.fromBytes((byte[]) o);
+        if (clazz == String.class) return (o, c) -> RLPItem.fromString((String) o);
+        // terminals
+        if (clazz == Byte.class) return (o, c) -> RLPItem.fromByte((byte) o);
+        if (clazz == Short.class) return (o, c) -> RLPItem.fromShort((short) o);
+        if (clazz == Integer.class) return (o, c) -> RLPItem.fromInt((int) o);
+        if (clazz == Long.class) return (o, c) -> RLPItem.fromLong((long) o);
+        if (Map.class.isAssignableFrom(clazz)) return (o, c) -> RLPCodec.encodeMap((Map) o, null, c);
+        if (clazz.isArray()) return TypeCodec::encodeArray;
+        // re-emit the source unless decoded elements are modified
+        if (clazz == LazyList.class) return (o, c) -> ((LazyList) o).encode(c);
+        if (Collection.class.isAssignableFrom(clazz))
+            return (o, c) -> RLPCodec.encodeCollection((Collection) o, null, c);
+        return new PojoEncoder(clazz);
+    }
+
+    // encoder of the pojo fields of clazz selected by mask, mask is indexed as RLPUtils.getRLPFields(clazz)
+    static Encoder pojoEncoder(Class<?> clazz, boolean[] mask) {
+        return new PojoEncoder(clazz, mask);
+    }
+
+    private static RLPElement encodeArray(Object o, RLPContext context) {
+        if (o instanceof Object[]) {
+            Object[] arr = (Object[]) o;
+            List<RLPElement> elements = new ArrayList<>(arr.length);
+            for (Object x : arr) {
+                elements.add(RLPElement.readRLPTree(x, context));
+            }
+            return new RLPList(elements);
+        }
+        int length = Array.getLength(o);
+        List<RLPElement> elements = new ArrayList<>(length);
+        for (int i = 0; i < length; i++) {
+            elements.add(RLPElement.readRLPTree(Array.get(o, i), context));
+        }
+        return new RLPList(elements);
+    }
+
+    private static Decoder defaultDecoder(Class<?> clazz) {
+        if (clazz == boolean.class || clazz == Boolean.class) return (el, c) -> el.asBoolean();
+        if (clazz == byte.class || clazz == Byte.class) return (el, c) -> el.asByte();
+        if (clazz == short.class || clazz == Short.class) return (el, c) -> el.asShort();
+        if (clazz == int.class || clazz == Integer.class) return (el, c) -> el.asInt();
+        if (clazz == long.class || clazz == Long.class) return (el, c) -> el.asLong();
+        if (clazz == byte[].class) return (el, c) -> {
+            DedupCache cache = c.getDedupCache();
+            return cache == null ? el.asBytes() : cache.bytes(el.asRLPItem());
+        };
+        // String is non-null, since we cannot differ between null empty string and null
+        if (clazz == String.class) return (el, c) -> {
+            DedupCache cache = c.getDedupCache();
+            return cache == null ? el.asString() : cache.string(el.asRLPItem());
+        };
+        // big integer is non-null, since we cannot differ between zero and null
+        if (clazz == BigInteger.class) return (el, c) -> el.asBigInteger();
+        Decoder nullable;
+        if (clazz.isArray()) {
+            nullable = arrayDecoder(clazz.getComponentType());
+        } else if (RLPUtils.isContainer(clazz)) {
+            // cannot determine generic type at runtime
+            Container container = Container.fromClass(clazz);
+            nullable = (el, c) -> RLPCodec.decodeContainer(el, container, c);
+        } else {
+            nullable = new PojoDecoder(clazz);
+        }
+        return (el, c) -> el.isNull() ? null : nullable.decode(el, c);
+    }
+
+    private static Decoder arrayDecoder(Class<?> componentType) {
+        TypeCodec component = get(componentType);
+        return (el, c) -> {
+            int size = el.size();
+            Object res = Array.newInstance(componentType, size);
+            if (!componentType.isPrimitive()) {
+                Object[] arr = (Object[]) res;
+                for (int i = 0; i < size; i++) {
+                    arr[i] = component.decode(el.get(i), c);
+                }
+                return res;
+            }
+            for (int i = 0; i < size; i++) {
+                Array.set(res, i, component.decode(el.get(i), c));
+            }
+            return res;
+        };
+    }
+
+    private static final class PojoEncoder implements Encoder {
+        // retained source element, null if absent or masked
+        private final Field source;
+        private final Field[] fields;
+        private final RLPEncoder[] encoders;
+        private final Comparator[] keyOrderings;
+        private final boolean[] isSet;
+        private final boolean[] isMap;
+
+        PojoEncoder(Class<?> clazz) {
+            this(clazz, null);
+        }
+
+        // null mask selects all fields
+        PojoEncoder(Class<?> clazz, boolean[] mask) {
+            List<Field> fields = RLPUtils.getRLPFields(clazz);
+            if (fields.size() == 0)
+                throw new RuntimeException("no encodable field of " + clazz.getName() + " found");
+            this.source = mask == null ? RLPUtils.getSourceField(clazz) : null;
+            if (mask != null) {
+                List<Field> selected = new ArrayList<>();
+                for (int i = 0; i < fields.size(); i++) {
+                    if (mask[i]) selected.add(fields.get(i));
+                }
+                fields = selected;
+            }
+            int n = fields.size();
+            this.fields = new Field[n];
+            this.encoders = new RLPEncoder[n];
+            this.keyOrderings = new Comparator[n];
+            this.isSet = new boolean[n];
+            this.isMap = new boolean[n];
+            for (int i = 0; i < n; i++) {
+                Field f = fields.get(i);
+                f.setAccessible(true);
+                this.fields[i] = f;
+                this.keyOrderings[i] = RLPUtils.getKeyOrdering(f);
+                this.encoders[i] = RLPUtils.getAnnotatedRLPEncoder(f);
+                this.isSet[i] = Set.class.isAssignableFrom(f.getType());
+                this.isMap[i] = Map.class.isAssignableFrom(f.getType());
+            }
+        }
+
+        @Override
+        public RLPElement encode(Object t, RLPContext context) {
+            if (source != null) {
+                try {
+                    RLPElement el = (RLPElement) source.get(t);
+                    if (el != null) return el;
+                } catch (IllegalAccessException e) {
+                    throw new RuntimeException(e);
+                }
+            }
+            List<RLPElement> elements = new ArrayList<>(fields.length);
+            for (int i = 0; i < fields.length; i++) {
+                Object o;
+                try {
+                    o = fields[i].get(t);
+                } catch (IllegalAccessException e) {
+                    throw new RuntimeException(e);
+                }
+                if (o == null) {
+                    elements.add(NULL);
+                } else if (encoders[i] != null) {
+                    elements.add(encoders[i].encode(o));
+                } else if (isSet[i]) {
+                    elements.add(RLPCodec.encodeCollection((Collection) o, keyOrderings[i], context));
+                } else if (isMap[i]) {
+                    elements.add(RLPCodec.encodeMap((Map) o, keyOrderings[i], context));
+                } else {
+                    elements.add(RLPElement.readRLPTree(o, context));
+                }
+            }
+            return new RLPList(elements);
+        }
+    }
+
+    private static final class PojoDecoder implements Decoder {
+        private final Class<?> clazz;
+        private final Constructor<?> constructor;
+        private final Field source;
+        private final Field[] fields;
+        private final RLPDecoder[] decoders;
+        private final Container[] containers;
+
+        PojoDecoder(Class<?> clazz) {
+            this.clazz = clazz;
+            try {
+                this.constructor = clazz.getDeclaredConstructor();
+                this.constructor.setAccessible(true);
+            } catch (Exception e) {
+                throw new RuntimeException(clazz + " should has an no-argument constructor");
+            }
+            this.source = RLPUtils.getSourceField(clazz);
+            List<Field> fields = RLPUtils.getRLPFields(clazz);
+            if (fields.size() == 0) {
+                this.fields = null;
+                this.decoders = null;
+                this.containers = null;
+                return;
+            }
+            List<Container> containers = RLPUtils.getRLPContainers(clazz);
+            int n = fields.size();
+            this.fields = fields.toArray(new Field[n]);
+            this.containers = containers.toArray(new Container[n]);
+            this.decoders = new RLPDecoder[n];
+            for (int i = 0; i < n; i++) {
+                this.fields[i].setAccessible(true);
+                this.decoders[i] = RLPUtils.getAnnotatedRLPDecoder(this.fields[i]);
+            }
+        }
+
+        @Override
+        public Object decode(RLPElement element, RLPContext context) {
+            Object o;
+            try {
+                o = constructor.newInstance();
+            } catch (Exception e) {
+                throw new RuntimeException(e);
+            }
+            if (fields == null) throw new RuntimeException("no encodable field of " + clazz.getName() + " found");
+            for (int i = 0; i < fields.length; i++) {
+                RLPElement el = element.get(i);
+                try {
+                    fields[i].set(o, decoders[i] != null ?
+                            RLPRetention.retain(decoders[i].decode(el), context) :
+                            RLPCodec.decodeContainer(el, containers[i], context)
+                    );
+                } catch (Exception e) {
+                    throw new RuntimeException(e);
+                }
+            }
+            if (source != null) {
+                try {
+                    source.set(o, RLPRetention.retain(element, context));
+                } catch (IllegalAccessException e) {
+                    throw new RuntimeException(e);
+                }
+            }
+            return o;
+        }
+    }
+}
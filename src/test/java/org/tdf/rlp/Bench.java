@@ -6,9 +6,16 @@ import org.apache.commons.codec.binary.Hex;
 import org.junit.Test;
 
 import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
 
 public class Bench {
+    static final String POOL_DATA = "f90205f84e820539942c93e2f9f75382717af5de4c105ffb4c6503c5b4038a01605d9ee98627100000891b1ae4d6e2ef50000089f3f20b8dfa69d00000891b1ae4d6e2ef5000008089020281c283b028524012f182053994eb4d5af9f8cbb97f6eb95c21f2ff541b121c7fd1018814d1120d7b160000808080808923b97412d86c4ea13a12f84d8205399444915ecba748148cf6ad6a323af8be52d3befb8f01890ad78ebc5ac6200000890ad78ebc5ac6200000890ad78ebc5ac6200000890ad78ebc5ac62000008089d5c457fd13c65daff712f84e8205399434451604347d45ef4b5cbd790e88d09907b1706c0189055005f0c61448000089055005f0c6144800008915af1d78b58c4000008915af1d78b58c400000808a0df94d0efa177fd1a51812f8508205399438e4f0437edd9bda6f32caae007c985b97bbcff1808a01a46d2eef9995fe00008a010ec78cd35b142c00008a010f0cf064dd592000008a010f0cf064dd5920000080880de0b6b3a764000012f85082053994c7376932e8f7f03d33ffb3ed781d7f28c6c5bbb5808a01c37637845d6d2000008a010ec78cd35b142c00008a0202fefbf2d7c2f000008a010f0cf064dd5920000080880de0b6b3a764000012f83e820539945b536881e3c4fd7639ca0dcaeffcd73daff98523028a021e19e0c9bab24000008a021e19e0c9bab24000008a021e19e0c9bab240000080808012";
+
     @Getter
     public static class PoolData{
         long chainId;
@@ -43,12 +50,385 @@ public class Bench {
 
     public static void main(String[] args) {
         benchEncodeDecode();
+        benchNestedNode();
+        benchBatch();
+        benchColumns();
+        benchKeccak();
+        benchOrderedTrieRoot();
+        benchTrieProof();
+        benchSharedSubtrees();
+        benchArena();
+        benchSmallItems();
+    }
+
+    // nonces, types and flags, all items are shared on encoding and decoding
+    public static void benchSmallItems() {
+        long[] values = new long[1000];
+        Random random = new Random(0);
+        for (int i = 0; i < values.length; i++) {
+            values[i] = random.nextInt(RLPItem.MAX_SHARED_INTEGER + 1);
+        }
+        byte[] encoded = RLPCodec.encode(values);
+        int count = 10000;
+        long sum = 0;
+
+        long now = System.nanoTime();
+
+        for (int i = 0; i < count; i++) {
+            sum += RLPCodec.encode(values).length;
+            sum += RLPCodec.decode(encoded, long[].class)[i % values.length];
+        }
+
+        long end = System.nanoTime();
+
+        System.out.println("encode and decode " + values.length + " small integers " + count + " times " + ((end - now) * 1.0 / count / 1000) + " us avg " + sum);
+    }
+
+    // 200k cached pool data trees, parsed on heap or stored in an arena
+    @SneakyThrows
+    public static void benchArena() {
+        PoolData[] datas = RLPCodec.decode(Hex.decodeHex(POOL_DATA), PoolData[].class);
+        List<byte[]> encoded = new ArrayList<>();
+        for (int i = 0; i < 200000; i++) {
+            encoded.add(RLPCodec.encode(datas[i % datas.length]));
+        }
+        List<RLPElement> trees = new ArrayList<>(encoded.size());
+        for (byte[] e : encoded) {
+            trees.add(RLPElement.fromEncoded(e));
+        }
+        RLPArena arena = new RLPArena();
+        List<RLPElement> handles = new ArrayList<>(encoded.size());
+        for (byte[] e : encoded) {
+            handles.add(arena.store(e));
+        }
+        System.out.println("arena of 200000 trees reserves " + arena.getReservedBytes() / 1024 / 1024 + " MB off-heap");
+
+        for (List<RLPElement> elements : Arrays.asList(trees, handles)) {
+            long now = System.nanoTime();
+            long sum = 0;
+            for (RLPElement el : elements) {
+                sum += RLPCodec.decode(el, PoolData.class).chainId;
+            }
+            long end = System.nanoTime();
+            System.out.println("decode 200000 pojos from " + (elements == trees ? "heap trees " : "arena ") + ((end - now) * 1.0 / 1000000) + " ms");
+        }
+        arena.clear();
+    }
+
+    // snapshot like graph, every level refers to the same children
+    public static void benchSharedSubtrees() {
+        RLPTest.Node node = new RLPTest.Node("leaf");
+        for (int i = 0; i < 8; i++) {
+            RLPTest.Node parent = new RLPTest.Node("level" + i);
+            parent.addChildren(Arrays.asList(node, node, node, node));
+            node = parent;
+        }
+        RLPContext shared = RLPContext.newInstance().withSharedSubtrees(true);
+        int count = 20;
+
+        long now = System.nanoTime();
+
+        for (int i = 0; i < count; i++) {
+            RLPCodec.encode(node);
+        }
+
+        long end = System.nanoTime();
+
+        System.out.println("encode 4^8 shared nodes " + count + " times " + ((end - now) * 1.0 / count / 1000000) + " ms avg");
+
+        now = System.nanoTime();
+
+        for (int i = 0; i < count; i++) {
+            RLPCodec.encode(node, shared);
+        }
+
+        end = System.nanoTime();
+
+        System.out.println("encode 4^8 shared nodes with shared subtrees " + count + " times " + ((end - now) * 1.0 / count / 1000000) + " ms avg");
+    }
+
+    public static void benchTrieProof() {
+        Random random = new Random(0);
+        Trie trie = new Trie(new MemoryTrieStore());
+        List<byte[]> keys = new ArrayList<>();
+        for (int i = 0; i < 100000; i++) {
+            byte[] key = new byte[32];
+            random.nextBytes(key);
+            byte[] value = new byte[70];
+            random.nextBytes(value);
+            trie.put(key, value);
+            keys.add(key);
+        }
+        byte[] root = trie.getRootHash();
+        List<byte[][]> proofs = new ArrayList<>();
+        for (byte[] key : keys) {
+            proofs.add(trie.prove(key));
+        }
+
+        long now = System.nanoTime();
+
+        for (int i = 0; i < keys.size(); i++) {
+            Trie.verifyProof(root, keys.get(i), proofs.get(i));
+        }
+
+        long end = System.nanoTime();
+
+        System.out.println("verify " + keys.size() + " proofs " + ((end - now) * 1.0 / keys.size() / 1000) + " us avg");
+    }
+
+    // transactions root of a block body with 10k transactions
+    public static void benchOrderedTrieRoot() {
+        Random random = new Random(0);
+        List<byte[]> txs = new ArrayList<>();
+        for (int i = 0; i < 10000; i++) {
+            byte[] tx = new byte[100 + random.nextInt(200)];
+            random.nextBytes(tx);
+            txs.add(tx);
+        }
+        int count = 20;
+
+        long now = System.nanoTime();
+
+        for (int i = 0; i < count; i++) {
+            Trie trie = new Trie(new MemoryTrieStore());
+            for (int j = 0; j < txs.size(); j++) {
+                trie.put(RLPCodec.encodeInt(j), txs.get(j));
+            }
+            trie.getRootHash();
+        }
+
+        long end = System.nanoTime();
+
+        System.out.println("trie root of 10000 transactions " + count + " times " + ((end - now) * 1.0 / count / 1000000) + " ms avg");
+
+        now = System.nanoTime();
+
+        for (int i = 0; i < count; i++) {
+            OrderedTrieRoot.of(txs);
+        }
+
+        end = System.nanoTime();
+
+        System.out.println("ordered trie root of 10000 transactions " + count + " times " + ((end - now) * 1.0 / count / 1000000) + " ms avg");
+    }
+
+    public static void benchKeccak() {
+        for (int size : new int[]{32, 1024, 1 << 20}) {
+            byte[] input = new byte[size];
+            int count = Math.max(20, (1 << 27) / size / 8);
+            org.spongycastle.crypto.digests.KeccakDigest reference = new org.spongycastle.crypto.digests.KeccakDigest(256);
+            byte[] out = new byte[32];
+
+            long now = System.nanoTime();
+
+            for (int i = 0; i < count; i++) {
+                reference.update(input, 0, input.length);
+                reference.doFinal(out, 0);
+            }
+
+            long end = System.nanoTime();
+
+            System.out.println("spongycastle keccak256 of " + size + " bytes " + count + " times " + ((end - now) * 1.0 / count / 1000) + " us avg");
+
+            now = System.nanoTime();
+
+            for (int i = 0; i < count; i++) {
+                Keccak256.hash(input);
+            }
+
+            end = System.nanoTime();
+
+            System.out.println("keccak256 of " + size + " bytes " + count + " times " + ((end - now) * 1.0 / count / 1000) + " us avg");
+        }
+    }
+
+    // sum r of every pool data record
+    @SneakyThrows
+    public static void benchColumns() {
+        PoolData[] datas = RLPCodec.decode(Hex.decodeHex(POOL_DATA), PoolData[].class);
+        List<byte[]> encoded = new ArrayList<>();
+        for (int i = 0; i < 100000; i++) {
+            encoded.add(RLPCodec.encode(datas[i % datas.length]));
+        }
+
+        int count = 20;
+        BigInteger sum = BigInteger.ZERO;
+
+        long now = System.currentTimeMillis();
+
+        for (int i = 0; i < count; i++) {
+            sum = BigInteger.ZERO;
+            for (PoolData d : RLPCodec.decodeAll(encoded, PoolData.class)) {
+                sum = sum.add(d.r);
+            }
+        }
+
+        long end = System.currentTimeMillis();
+
+        System.out.println("sum r of 100000 pool data by objects " + count + " times " + ((end - now) * 1.0 / count) + " ms avg");
+
+        now = System.currentTimeMillis();
+
+        BigInteger columnSum = BigInteger.ZERO;
+        for (int i = 0; i < count; i++) {
+            columnSum = BigInteger.ZERO;
+            for (BigInteger r : RLPColumns.decode(encoded, PoolData.class, "r").getBigIntegers("r")) {
+                columnSum = columnSum.add(r);
+            }
+        }
+
+        end = System.currentTimeMillis();
+
+        System.out.println("sum r of 100000 pool data by columns " + count + " times " + ((end - now) * 1.0 / count) + " ms avg");
+
+        now = System.currentTimeMillis();
+
+        long[] words = null;
+        for (int i = 0; i < count; i++) {
+            // 256-bit accumulator of 64-bit words, least significant first, no overflow for 100000 records of 2^128
+            long[] acc = new long[4];
+            long[] column = RLPColumns.decode(encoded, PoolData.class, "r").getUint256("r");
+            for (int j = 0; j < column.length; j += 4) {
+                long carry = 0;
+                for (int k = 0; k < 4; k++) {
+                    long a = acc[k];
+                    long b = column[j + 3 - k];
+                    long s = a + b + carry;
+                    carry = (Long.compareUnsigned(s, a) < 0 || (carry == 1 && s == a)) ? 1 : 0;
+                    acc[k] = s;
+                }
+            }
+            words = acc;
+        }
+
+        end = System.currentTimeMillis();
+
+        System.out.println("sum r of 100000 pool data by uint256 column " + count + " times " + ((end - now) * 1.0 / count) + " ms avg");
+
+        BigInteger wordSum = BigInteger.ZERO;
+        for (int k = 3; k >= 0; k--) {
+            wordSum = wordSum.shiftLeft(64).add(new BigInteger(Long.toUnsignedString(words[k])));
+        }
+        if (!sum.equals(columnSum) || !sum.equals(wordSum)) throw new RuntimeException("sum mismatch");
+    }
+
+    @SneakyThrows
+    public static void benchBatch() {
+        PoolData[] datas = RLPCodec.decode(Hex.decodeHex(POOL_DATA), PoolData[].class);
+        List<byte[]> encoded = new ArrayList<>();
+        for (int i = 0; i < 100000; i++) {
+            encoded.add(RLPCodec.encode(datas[i % datas.length]));
+        }
+
+        int count = 20;
+
+        long now = System.currentTimeMillis();
+
+        for (int i = 0; i < count; i++) {
+            RLPCodec.decodeAll(encoded, PoolData.class);
+        }
+
+        long end = System.currentTimeMillis();
+
+        System.out.println("decode 100000 pool data in batch " + count + " times " + ((end - now) * 1.0 / count) + " ms avg");
+
+        now = System.currentTimeMillis();
+
+        for (int i = 0; i < count; i++) {
+            RLPCodec.decodeAllAsync(encoded, PoolData.class, ForkJoinPool.commonPool()).get();
+        }
+
+        end = System.currentTimeMillis();
+
+        System.out.println("decode 100000 pool data in async batch " + count + " times " + ((end - now) * 1.0 / count) + " ms avg");
+    }
+
+    // complete tree with fan-out 3 and depth 6, 1093 nodes in total
+    private static RLPTest.Node nestedNode(String name, int depth) {
+        RLPTest.Node n = new RLPTest.Node(name);
+        if (depth == 0) return n;
+        List<RLPTest.Node> children = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            children.add(nestedNode(name + i, depth - 1));
+        }
+        n.addChildren(children);
+        return n;
+    }
+
+    public static void benchNestedNode() {
+        RLPTest.Node root = nestedNode("", 6);
+        byte[] encoded = RLPCodec.encode(root);
+
+        int count = 10000;
+
+        long now = System.currentTimeMillis();
+
+        for (int i = 0; i < count; i++) {
+            RLPCodec.encode(root);
+        }
+
+        long end = System.currentTimeMillis();
+
+        System.out.println("encode nested node " + count + " times " + ((end - now) * 1.0 / count) + " ms avg");
+
+        now = System.currentTimeMillis();
+
+        for (int i = 0; i < count; i++) {
+            RLPCodec.decode(encoded, RLPTest.Node.class);
+        }
+
+        end = System.currentTimeMillis();
+
+        System.out.println("decode nested node " + count + " times " + ((end - now) * 1.0 / count) + " ms avg");
+
+        DirectBufferPool pool = new DirectBufferPool();
+        now = System.currentTimeMillis();
+
+        for (int i = 0; i < count; i++) {
+            pool.release(RLPCodec.encode(root, pool));
+        }
+
+        end = System.currentTimeMillis();
+
+        System.out.println("encode nested node into direct buffer " + count + " times " + ((end - now) * 1.0 / count) + " ms avg");
+
+        now = System.currentTimeMillis();
+
+        for (int i = 0; i < count; i++) {
+            ByteBuffer buf = pool.acquire(encoded.length);
+            buf.put(RLPCodec.encode(root));
+            pool.release(buf);
+        }
+
+        end = System.currentTimeMillis();
+
+        System.out.println("encode nested node and copy into direct buffer " + count + " times " + ((end - now) * 1.0 / count) + " ms avg");
+
+        Keccak256 digest = new Keccak256();
+        now = System.currentTimeMillis();
+
+        for (int i = 0; i < count; i++) {
+            digest.digest(RLPCodec.encode(root));
+        }
+
+        end = System.currentTimeMillis();
+
+        System.out.println("encode and hash nested node " + count + " times " + ((end - now) * 1.0 / count) + " ms avg");
+
+        now = System.currentTimeMillis();
+
+        for (int i = 0; i < count; i++) {
+            RLPCodec.hash(root, digest);
+        }
+
+        end = System.currentTimeMillis();
+
+        System.out.println("hash nested node while encoding " + count + " times " + ((end - now) * 1.0 / count) + " ms avg");
     }
 
     @SneakyThrows
     public static void benchEncodeDecode() {
-        String dt = "f90205f84e820539942c93e2f9f75382717af5de4c105ffb4c6503c5b4038a01605d9ee98627100000891b1ae4d6e2ef50000089f3f20b8dfa69d00000891b1ae4d6e2ef5000008089020281c283b028524012f182053994eb4d5af9f8cbb97f6eb95c21f2ff541b121c7fd1018814d1120d7b160000808080808923b97412d86c4ea13a12f84d8205399444915ecba748148cf6ad6a323af8be52d3befb8f01890ad78ebc5ac6200000890ad78ebc5ac6200000890ad78ebc5ac6200000890ad78ebc5ac62000008089d5c457fd13c65daff712f84e8205399434451604347d45ef4b5cbd790e88d09907b1706c0189055005f0c61448000089055005f0c6144800008915af1d78b58c4000008915af1d78b58c400000808a0df94d0efa177fd1a51812f8508205399438e4f0437edd9bda6f32caae007c985b97bbcff1808a01a46d2eef9995fe00008a010ec78cd35b142c00008a010f0cf064dd592000008a010f0cf064dd5920000080880de0b6b3a764000012f85082053994c7376932e8f7f03d33ffb3ed781d7f28c6c5bbb5808a01c37637845d6d2000008a010ec78cd35b142c00008a0202fefbf2d7c2f000008a010f0cf064dd5920000080880de0b6b3a764000012f83e820539945b536881e3c4fd7639ca0dcaeffcd73daff98523028a021e19e0c9bab24000008a021e19e0c9bab24000008a021e19e0c9bab240000080808012";
-        byte[] bytes = Hex.decodeHex(dt);
+        byte[] bytes = Hex.decodeHex(POOL_DATA);
 
         PoolData[] datas = RLPCodec.decode(bytes, PoolData[].class);
 
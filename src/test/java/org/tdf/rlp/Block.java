@@ -1,8 +1,9 @@
 package org.tdf.rlp;
 
 
+import java.io.BufferedInputStream;
 import java.io.File;
-import java.nio.file.Files;
+import java.io.FileInputStream;
 import java.nio.file.Paths;
 import java.util.Arrays;
 import java.util.Comparator;
@@ -52,24 +53,29 @@ public class Block {
     public static void eval() {
         String directory = System.getenv("BLOCKS_DIRECTORY");
         File file = Paths.get(directory).toFile();
-        Stream<byte[]> data = Optional.of(file)
+        Stream<File> files = Optional.of(file)
                 .filter(File::isDirectory)
                 .map(File::listFiles)
                 .map(Arrays::stream)
                 .orElse(Stream.empty())
                 .filter(f -> !f.isDirectory() && f.getName().startsWith(PREFIX))
-                .sorted(Comparator.comparingInt(x -> Integer.parseInt(x.getName().split("\\.")[1])))
-                .map(x -> {
-                    try {
-                        return Files.readAllBytes(x.toPath());
+                .sorted(Comparator.comparingInt(x -> Integer.parseInt(x.getName().split("\\.")[1])));
+        long start = System.currentTimeMillis();
+        // each dump is a rlp list of blocks, stream the blocks instead of loading the whole file
+        long op = files
+                .mapToLong(x -> {
+                    try (RLPInputStream in = new RLPInputStream(new BufferedInputStream(new FileInputStream(x)))) {
+                        in.enterList();
+                        long n = 0;
+                        while (in.hasNext()) {
+                            in.read(Block.class);
+                            n++;
+                        }
+                        return n;
                     } catch (Exception e) {
                         throw new RuntimeException(e);
                     }
-                });
-        long start = System.currentTimeMillis();
-        long op = data
-                .map(binary -> RLPCodec.decode(binary, Block[].class))
-                .mapToLong(blocks -> blocks.length)
+                })
                 .sum();
 
         long end = System.currentTimeMillis();
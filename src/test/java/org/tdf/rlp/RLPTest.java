@@ -2,24 +2,42 @@ package org.tdf.rlp;
 
 import lombok.AllArgsConstructor;
 import lombok.Data;
+import lombok.EqualsAndHashCode;
 import lombok.NoArgsConstructor;
 import org.apache.commons.codec.binary.Hex;
 import org.junit.Ignore;
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
 import org.junit.runner.RunWith;
 import org.junit.runners.JUnit4;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.FileInputStream;
 import java.io.InputStream;
 import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
 import java.nio.charset.Charset;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
 import java.security.SecureRandom;
 import java.time.LocalDate;
 import java.time.format.DateTimeFormatter;
 import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.stream.Collectors;
+import java.util.stream.IntStream;
 import java.util.stream.Stream;
 
 import static org.junit.Assert.assertArrayEquals;
@@ -1521,11 +1539,11 @@ public class RLPTest {
     }
 
     private static class ErrorCase4 {
-        public ByteArrayMap<String> some;
+        public LinkedHashMap<String, String> some;
     }
 
     private static class ErrorCase5 {
-        public ByteArraySet some;
+        public LinkedHashSet<String> some;
     }
 
     private static class ErrorCase6<V> {
@@ -1722,4 +1740,1322 @@ public class RLPTest {
     public static class User{
         private LocalDate birthDay;
     }
+
+    private static class TransientTest {
+        public String field1 = "111";
+        public transient String field2 = "222";
+    }
+
+    @Test
+    public void testTransientIgnoredOnFirstEncode() {
+        RLPElement el = RLPElement.readRLPTree(new TransientTest());
+        assert el.size() == 1;
+        assert RLPElement.readRLPTree(new TransientTest()).size() == 1;
+    }
+
+    @Test
+    public void testContextOverridesBuiltin() {
+        RLPContext context = RLPContext.newInstance()
+                .withEncoder(Long.class, l -> RLPItem.fromString(l.toString()))
+                .withDecoder(Long.class, el -> Long.parseLong(el.asString()));
+        RLPMapper mapper = new RLPMapper().withContext(context);
+        byte[] encoded = mapper.encode(Arrays.asList(1L, 100L));
+        assert RLPElement.fromEncoded(encoded).get(1).asString().equals("100");
+        assert RLPCodec.decode(RLPCodec.encode(100L), Long.class) == 100L;
+        assert mapper.decode(encoded, Long[].class)[1] == 100L;
+    }
+
+    private static class CanonicalWrapper {
+        @RLPEncoding(keyOrdering = RLPEncoding.Canonical.class)
+        public Map<Long, String> map = new HashMap<>();
+
+        @RLPEncoding(keyOrdering = RLPEncoding.Canonical.class)
+        public Set<String> set = new HashSet<>();
+    }
+
+    @Test
+    public void testCanonicalOrdering() {
+        CanonicalWrapper w = new CanonicalWrapper();
+        // 0x80, 0x01, 0x7f, 0x8180, 0x820100
+        for (long l : new long[]{256, 128, 127, 1, 0}) {
+            w.map.put(l, Long.toString(l));
+        }
+        w.set.addAll(Arrays.asList("ccc", "a", "bb", ""));
+        RLPElement el = RLPElement.readRLPTree(w);
+        long[] keys = new long[]{1, 127, 0, 128, 256};
+        for (int i = 0; i < keys.length; i++) {
+            assert el.get(0).get(i * 2).asLong() == keys[i];
+            assert el.get(0).get(i * 2 + 1).asString().equals(Long.toString(keys[i]));
+        }
+        // 0x61, 0x80, 0x826262, 0x83636363
+        String[] strings = new String[]{"a", "", "bb", "ccc"};
+        for (int i = 0; i < strings.length; i++) {
+            assert el.get(1).get(i).asString().equals(strings[i]);
+        }
+    }
+
+    @Test
+    public void testSortedSourceAndParallelSort() {
+        SetWrapper1 w1 = new SetWrapper1();
+        w1.set = new TreeSet<>(new StringComparator());
+        w1.set.addAll(Arrays.asList("333", "1", "22"));
+        assert RLPUtils.isSortedBy(w1.set, RLPUtils.getInstance(StringComparator.class));
+        RLPElement el = RLPElement.readRLPTree(w1);
+        assert el.get(0).get(0).asString().equals("1");
+        assert el.get(0).get(2).asString().equals("333");
+
+        ByteArraySetWrapper wrapper = new ByteArraySetWrapper();
+        wrapper.bytesSet = new HashSet<>();
+        int n = RLPCodec.PARALLEL_SORT_THRESHOLD * 2;
+        for (int i = 0; i < n; i++) {
+            wrapper.bytesSet.add(BigInteger.valueOf(i + 1).toByteArray());
+        }
+        el = RLPElement.readRLPTree(wrapper).get(0);
+        assert el.size() == n;
+        for (int j = 0; j < n; j++) {
+            assert new BigInteger(1, el.get(j).asBytes()).intValue() == j + 1;
+        }
+    }
+
+    private static class ByteArrayKeyed {
+        public Map<byte[], String> map;
+        public Set<byte[]> set;
+        @RLPDecoding(as = TreeMap.class)
+        public Map<byte[], String> tree;
+    }
+
+    @Test
+    public void testByteArrayMapSelected() {
+        ByteArrayKeyed k = new ByteArrayKeyed();
+        k.map = new HashMap<>();
+        k.map.put(new byte[]{1}, "1");
+        k.set = new HashSet<>();
+        k.set.add(new byte[]{2});
+        ByteArrayKeyed decoded = RLPCodec.decode(RLPCodec.encode(k), ByteArrayKeyed.class);
+        assert decoded.map instanceof ByteArrayMap;
+        assert decoded.map.get(new byte[]{1}).equals("1");
+        assert decoded.set instanceof ByteArraySet;
+        assert decoded.set.contains(new byte[]{2});
+        assert decoded.tree instanceof TreeMap;
+    }
+
+    @Test
+    public void testByteArrayMap() {
+        ByteArrayMap<Integer> map = new ByteArrayMap<>();
+        Map<ByteArrayWrapper, Integer> expected = new HashMap<>();
+        Random random = new Random(0);
+        for (int i = 0; i < 10000; i++) {
+            byte[] key = new byte[1 + random.nextInt(3)];
+            random.nextBytes(key);
+            boolean remove = random.nextInt(3) == 0;
+            Integer actual = remove ? map.remove(key.clone()) : map.put(key, i);
+            Integer previous = remove ?
+                    expected.remove(new ByteArrayWrapper(key)) : expected.put(new ByteArrayWrapper(key), i);
+            assert Objects.equals(actual, previous);
+            assert map.size() == expected.size();
+        }
+        for (Map.Entry<ByteArrayWrapper, Integer> e : expected.entrySet()) {
+            assert map.get(e.getKey().getData().clone()).equals(e.getValue());
+        }
+        assert map.keySet().stream().allMatch(x -> expected.containsKey(new ByteArrayWrapper(x)));
+        assert map.equals(new ByteArrayMap<>(map));
+        assert map.hashCode() == new ByteArrayMap<>(map).hashCode();
+
+        Iterator<byte[]> it = map.keySet().iterator();
+        while (it.hasNext()) {
+            if ((it.next()[0] & 1) == 0) it.remove();
+        }
+        assert map.keySet().stream().noneMatch(x -> (x[0] & 1) == 0);
+        assert map.size() == expected.keySet().stream().filter(x -> (x.getData()[0] & 1) != 0).count();
+
+        // replacing values while iterating never moves entries, even at the load factor
+        ByteArrayMap<Integer> full = new ByteArrayMap<>();
+        for (int i = 0; i < 48; i++) {
+            byte[] key = new byte[8];
+            random.nextBytes(key);
+            full.put(key, i);
+        }
+        int visited = 0;
+        for (Map.Entry<byte[], Integer> e : full.entrySet()) {
+            full.put(e.getKey(), e.getValue() + 100);
+            visited++;
+        }
+        assert visited == 48;
+        assert full.values().stream().allMatch(v -> v >= 100 && v < 148);
+
+        ByteArraySet set = new ByteArraySet(Arrays.asList(new byte[]{1}, new byte[]{1}, new byte[]{2}));
+        assert set.size() == 2;
+        boolean removed = set.remove(new byte[]{1});
+        assert removed;
+        assert !set.contains(new byte[]{1});
+        assert set.contains(new byte[]{2});
+    }
+
+    @Test
+    public void testDedupCache() throws Exception {
+        Bench.PoolData[] data = RLPCodec.decode(HexBytes.decode(Bench.POOL_DATA), Bench.PoolData[].class);
+        byte[] encoded = RLPCodec.encode(data);
+        DedupCache cache = new DedupCache(1024);
+        RLPMapper mapper = new RLPMapper().withContext(RLPContext.EMPTY.withDedupCache(cache));
+        Bench.PoolData[] first = mapper.decode(encoded, Bench.PoolData[].class);
+        Bench.PoolData[] second = mapper.decode(encoded, Bench.PoolData[].class);
+        for (int i = 0; i < first.length; i++) {
+            assert first[i].address == second[i].address;
+            assert Arrays.equals(first[i].address, data[i].address);
+        }
+        assert cache.getHits() >= first.length;
+        assert cache.getHitRate() > 0;
+
+        String[] strings = mapper.decode(RLPCodec.encode(new String[]{"abc", "abc", ""}), String[].class);
+        assert strings[0] == strings[1];
+        assert strings[2].isEmpty();
+        assert RLPCodec.decode(encoded, Bench.PoolData[].class)[0].address != first[0].address;
+    }
+
+    private static class LazyBody {
+        public long height;
+        @RLPDecoding(lazy = true)
+        public List<TestSerializer> body;
+    }
+
+    @Test
+    public void testLazyList() {
+        LazyBody b = new LazyBody();
+        b.height = 1;
+        b.body = Arrays.asList(
+                new TestSerializer(Arrays.asList("1", "2")),
+                new TestSerializer(Collections.singletonList("3"))
+        );
+        byte[] encoded = RLPCodec.encode(b);
+        LazyBody decoded = RLPCodec.decode(encoded, LazyBody.class);
+        assert decoded.body instanceof LazyList;
+        assert decoded.body.size() == 2;
+        assert decoded.body.get(1).strings.get(0).equals("3");
+        assert decoded.body.get(1) == decoded.body.get(1);
+        assertArrayEquals(encoded, RLPCodec.encode(decoded));
+        try {
+            decoded.body.add(new TestSerializer());
+            assert false;
+        } catch (UnsupportedOperationException ignored) {
+        }
+        // decoded elements are mutable
+        decoded.body.get(1).strings = Collections.singletonList("4");
+        b.body.get(1).strings = Collections.singletonList("4");
+        byte[] modified = RLPCodec.encode(b);
+        assert !Arrays.equals(modified, encoded);
+        assertArrayEquals(modified, RLPCodec.encode(decoded));
+        assertArrayEquals(RLPCodec.keccak256(b), RLPCodec.keccak256(decoded));
+
+        RLPMapper mapper = new RLPMapper().withContext(RLPContext.newInstance().withLazyList(true));
+        encoded = RLPCodec.encode(new TestSerializer(Arrays.asList("1", "2")));
+        TestSerializer t = mapper.decode(encoded, TestSerializer.class);
+        assert t.strings instanceof LazyList;
+        assert t.strings.get(1).equals("2");
+        assert !(RLPCodec.decode(encoded, TestSerializer.class).strings instanceof LazyList);
+    }
+
+    @Test
+    public void testRLPInputStream() throws Exception {
+        Bench.PoolData[] data = RLPCodec.decode(HexBytes.decode(Bench.POOL_DATA), Bench.PoolData[].class);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] big = new byte[1024];
+        Arrays.fill(big, (byte) 1);
+        for (Bench.PoolData d : data) {
+            out.write(RLPCodec.encode(d));
+        }
+        out.write(RLPCodec.encode(big));
+        out.write(RLPCodec.encode(1));
+        out.write(RLPCodec.encode(""));
+        byte[] all = out.toByteArray();
+
+        RLPInputStream in = new RLPInputStream(new ByteArrayInputStream(all));
+        for (Bench.PoolData d : data) {
+            assertEquals(d.r, in.read(Bench.PoolData.class).r);
+        }
+        assertArrayEquals(big, in.next().asBytes());
+        assertEquals(1, (int) in.read(int.class));
+        RLPElement empty = in.next();
+        assert empty.isNull();
+        assert !in.hasNext();
+
+        InputStream source = new ByteArrayInputStream(RLPCodec.encode(data));
+        in = new RLPInputStream(Channels.newChannel(source));
+        in.enterList();
+        int i = 0;
+        while (in.hasNext()) {
+            assertArrayEquals(in.readBytes(), RLPCodec.encode(data[i++]));
+        }
+        assert i == data.length;
+    }
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    @Test
+    public void testRLPLog() throws Exception {
+        Path dir = tmp.newFolder("rlp-log").toPath();
+        Bench.PoolData[] data = RLPCodec.decode(HexBytes.decode(Bench.POOL_DATA), Bench.PoolData[].class);
+        try (RLPLog log = RLPLog.open(dir, 256, 4)) {
+            for (int i = 0; i < 20; i++) {
+                assertEquals(i, log.append(data[i % data.length]));
+            }
+            assertEquals(20, log.appendSync("last"));
+            assert log.get(3, Bench.PoolData.class).r.equals(data[3].r);
+            assert log.get(20).asString().equals("last");
+        }
+        try (RLPLog log = RLPLog.open(dir, 256, 4)) {
+            assert log.size() == 21;
+            assert log.get(19, Bench.PoolData.class).r.equals(data[19 % data.length].r);
+        }
+
+        // torn tail and stale index
+        Path last = Files.list(dir).filter(x -> x.toString().endsWith(".log")).sorted()
+                .reduce((x, y) -> y).get();
+        byte[] tail = RLPCodec.encode("0123456789");
+        Files.write(last, Arrays.copyOf(tail, 5), StandardOpenOption.APPEND);
+        try (RLPLog log = RLPLog.open(dir, 256, 4)) {
+            assert log.size() == 21;
+            assert log.get(20).asString().equals("last");
+        }
+        try (RLPLog log = RLPLog.open(dir, 256, 4)) {
+            assert log.size() == 21;
+            assertEquals(21, log.append("next"));
+            assert log.get(21).asString().equals("next");
+        }
+        Files.delete(Paths.get(last.toString().replace(".log", ".idx")));
+        try (RLPLog log = RLPLog.open(dir, 256, 4)) {
+            assert log.size() == 22;
+            assert log.get(21).asString().equals("next");
+            // group commit
+            Set<Long> seqs = Collections.synchronizedSet(new HashSet<>());
+            IntStream.range(0, 64).parallel().forEach(i -> seqs.add(log.appendSync(i)));
+            assert seqs.size() == 64 && log.size() == 86;
+            for (long i = 22; i < 86; i++) {
+                assert seqs.contains(i);
+            }
+            assertEquals(86, log.appendSync("zeroed"));
+        }
+
+        // the data file was extended but not written before a crash and the index is ahead of it
+        last = Files.list(dir).filter(x -> x.toString().endsWith(".log")).sorted()
+                .reduce((x, y) -> y).get();
+        Path index = Paths.get(last.toString().replace(".log", ".idx"));
+        long lastSize = Files.size(last);
+        int zeroed = RLPCodec.encode("zeroed").length + Integer.BYTES;
+        try (FileChannel ch = FileChannel.open(last, StandardOpenOption.WRITE);
+             FileChannel idx = FileChannel.open(index, StandardOpenOption.WRITE)) {
+            ch.write(ByteBuffer.allocate(zeroed + 64), lastSize - zeroed);
+            // no record is known to be durable
+            idx.write(ByteBuffer.allocate(Long.BYTES), 0);
+        }
+        try (RLPLog log = RLPLog.open(dir, 256, 4)) {
+            assert log.size() == 86;
+            assert Files.size(last) == lastSize - zeroed;
+            assert log.get(85).asInt() < 64;
+        }
+    }
+
+    @Test
+    public void testEncodeIntoByteBuffer() throws Exception {
+        Bench.PoolData[] data = RLPCodec.decode(HexBytes.decode(Bench.POOL_DATA), Bench.PoolData[].class);
+        Node root = new Node("root");
+        List<Node> children = new ArrayList<>();
+        for (int i = 0; i < 40; i++) {
+            children.add(new Node(String.join("", Collections.nCopies(i, "x"))));
+        }
+        root.addChildren(children);
+        String big = String.join("", Collections.nCopies(1000, "y"));
+
+        ByteBuffer buf = ByteBuffer.allocateDirect(1 << 16);
+        for (Object o : Arrays.asList(data, root, big, 0, 1, 0x7f, 0x80, "", new byte[0], Collections.emptyList())) {
+            byte[] expected = RLPCodec.encode(o);
+            buf.clear();
+            assertEquals(expected.length, RLPCodec.encode(o, buf));
+            assert buf.position() == expected.length;
+            byte[] actual = new byte[expected.length];
+            buf.flip();
+            buf.get(actual);
+            assert Arrays.equals(actual, expected);
+        }
+
+        // partially modified decoded tree
+        RLPList decoded = RLPElement.fromEncoded(RLPCodec.encode(root)).asRLPList();
+        decoded.get(1).add(RLPItem.fromString(big));
+        List<Object> rebuilt = new ArrayList<>(decoded);
+        rebuilt.set(1, new ArrayList<>(decoded.get(1).asRLPList()));
+        byte[] modified = RLPCodec.encode(rebuilt);
+        assert modified.length > RLPCodec.encode(root).length;
+        assert Arrays.equals(decoded.getEncoded(), modified);
+        decoded = RLPElement.fromEncoded(RLPCodec.encode(root)).asRLPList();
+        decoded.get(1).add(RLPItem.fromString(big));
+        buf.clear();
+        assertEquals(modified.length, RLPCodec.encode(decoded, buf));
+        buf.flip();
+        assert buf.equals(ByteBuffer.wrap(modified));
+
+        // overflow
+        ByteBuffer small = ByteBuffer.allocateDirect(16);
+        small.position(3);
+        assertEquals(-RLPCodec.encode(big).length, RLPCodec.encode(big, small));
+        assert small.position() == 3;
+
+        DirectBufferPool pool = new DirectBufferPool(256, 4096, 2);
+        ByteBuffer encoded = RLPCodec.encode(root, pool);
+        assert encoded.isDirect() && encoded.equals(ByteBuffer.wrap(RLPCodec.encode(root)));
+        assert encoded.capacity() == 1024;
+        pool.release(encoded);
+        assert pool.size() == 1;
+        ByteBuffer reused = pool.acquire(1000);
+        assert reused == encoded && reused.position() == 0 && reused.limit() == 1000;
+        assert pool.acquire(1).capacity() == 256;
+        assert pool.acquire(5000).capacity() == 5000;
+        pool.release(ByteBuffer.allocateDirect(300));
+        assert pool.size() == 0;
+    }
+
+    private static byte[] concat(ByteBuffer[] buffers) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        for (ByteBuffer b : buffers) {
+            byte[] bytes = new byte[b.remaining()];
+            b.duplicate().get(bytes);
+            out.write(bytes, 0, bytes.length);
+        }
+        return out.toByteArray();
+    }
+
+    @Test
+    public void testEncodeGathering() throws Exception {
+        byte[] source = HexBytes.decode(Bench.POOL_DATA);
+
+        // unmodified element is the source itself
+        ByteBuffer[] buffers = RLPCodec.encodeGathering(RLPElement.fromEncoded(source));
+        assert buffers.length == 1 && buffers[0].array() == source;
+        assert Arrays.equals(concat(buffers), source);
+
+        // replace one field of one record
+        RLPList list = RLPElement.fromEncoded(source).asRLPList();
+        int i = list.size() / 2;
+        RLPElement record = list.get(i);
+        record.set(0, RLPItem.fromLong(12345));
+        // parsed but unmodified neighbour is still referenced
+        list.get(i + 1).size();
+        buffers = RLPCodec.encodeGathering(list);
+        Bench.PoolData[] modified = RLPCodec.decode(source, Bench.PoolData[].class);
+        modified[i].chainId = 12345;
+        byte[] expected = RLPCodec.encode(modified);
+        assert !Arrays.equals(expected, source);
+        assert Arrays.equals(concat(buffers), expected);
+        assert Arrays.equals(list.getEncoded(), expected);
+        int fresh = 0;
+        for (ByteBuffer b : buffers) {
+            if (b.array() != source) fresh += b.remaining();
+        }
+        assert buffers.length <= 5;
+        assert fresh < 2 * record.getEncoded().length;
+
+        // gathering write
+        Path tmp = Files.createTempFile("rlp", ".bin");
+        try (FileChannel channel = FileChannel.open(tmp, StandardOpenOption.WRITE)) {
+            buffers = RLPCodec.encodeGathering(list);
+            while (Arrays.stream(buffers).anyMatch(ByteBuffer::hasRemaining)) {
+                channel.write(buffers);
+            }
+        }
+        assert Arrays.equals(Files.readAllBytes(tmp), expected);
+        Files.delete(tmp);
+
+        // built trees and pojos
+        Bench.PoolData[] data = RLPCodec.decode(source, Bench.PoolData[].class);
+        assert Arrays.equals(concat(RLPCodec.encodeGathering(data)), source);
+        assert RLPCodec.encodeGathering(RLPList.createEmpty()).length == 1;
+    }
+
+    @Test
+    public void testBatchCodec() throws Exception {
+        Bench.PoolData[] data = RLPCodec.decode(HexBytes.decode(Bench.POOL_DATA), Bench.PoolData[].class);
+        List<Object> objects = new ArrayList<>();
+        for (int i = 0; i < 1000; i++) {
+            objects.add(data[i % data.length]);
+        }
+        objects.add(null);
+        objects.add("mixed");
+        List<byte[]> encoded = RLPCodec.encodeAll(objects);
+        for (int i = 0; i < objects.size(); i++) {
+            assert Arrays.equals(encoded.get(i), RLPCodec.encode(objects.get(i)));
+        }
+        List<byte[]> pools = encoded.subList(0, 1000);
+        List<Bench.PoolData> decoded = RLPCodec.decodeAll(pools, Bench.PoolData.class);
+        assert decoded.size() == 1000 && decoded.get(7).r.equals(data[7 % data.length].r);
+
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            List<byte[]> async = RLPCodec.encodeAllAsync(objects, executor).get();
+            for (int i = 0; i < objects.size(); i++) {
+                assert Arrays.equals(async.get(i), encoded.get(i));
+            }
+            List<Bench.PoolData> asyncDecoded = RLPCodec.decodeAllAsync(pools, Bench.PoolData.class, executor).get();
+            for (int i = 0; i < pools.size(); i++) {
+                assert Arrays.equals(RLPCodec.encode(asyncDecoded.get(i)), pools.get(i));
+            }
+            assert RLPCodec.decodeAllAsync(Collections.emptyList(), Bench.PoolData.class, executor).get().isEmpty();
+
+            List<byte[]> invalid = new ArrayList<>(pools);
+            invalid.set(500, new byte[]{(byte) 0xc5});
+            try {
+                RLPCodec.decodeAllAsync(invalid, Bench.PoolData.class, executor).get();
+                assert false;
+            } catch (ExecutionException e) {
+                assert e.getCause() instanceof RuntimeException;
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void testColumns() throws Exception {
+        Bench.PoolData[] data = RLPCodec.decode(HexBytes.decode(Bench.POOL_DATA), Bench.PoolData[].class);
+        List<byte[]> records = new ArrayList<>();
+        for (Bench.PoolData d : data) {
+            records.add(RLPCodec.encode(d));
+        }
+        RLPColumns columns = RLPColumns.decode(records, Bench.PoolData.class, "r", "chainId", "address", "decimals");
+        assert columns.size() == data.length;
+        long[] chainIds = columns.getLongs("chainId");
+        long[] decimals = columns.getLongs("decimals");
+        byte[][] addresses = columns.getBytes("address");
+        BigInteger[] r = columns.getBigIntegers("r");
+        long[] words = columns.getUint256("r");
+        for (int i = 0; i < data.length; i++) {
+            assert chainIds[i] == data[i].chainId;
+            assert decimals[i] == data[i].decimals;
+            assert Arrays.equals(addresses[i], data[i].address);
+            assert r[i].equals(data[i].r);
+            BigInteger w = BigInteger.ZERO;
+            for (int j = 0; j < 4; j++) {
+                w = w.shiftLeft(64).or(new BigInteger(1, ByteBuffer.allocate(8).putLong(words[i * 4 + j]).array()));
+            }
+            assert w.equals(data[i].r);
+        }
+
+        // nested lists are skipped
+        Node n = new Node("n");
+        n.addChildren(Arrays.asList(new Node("a"), new Node("b")));
+        List<byte[]> nodes = Arrays.asList(RLPCodec.encode(n), RLPCodec.encode(new Node("m")));
+        assert Arrays.equals(RLPColumns.decode(nodes, Node.class, "name").getStrings("name"), new String[]{"n", "m"});
+
+        try {
+            RLPColumns.decode(nodes, Node.class, "children");
+            assert false;
+        } catch (RuntimeException ignored) {
+        }
+        try {
+            columns.getLongs("f");
+            assert false;
+        } catch (RuntimeException ignored) {
+        }
+    }
+
+    private static final java.util.function.Supplier<MessageDigest> KECCAK = Keccak256::new;
+
+    @Test
+    public void testHash() throws Exception {
+        byte[] source = HexBytes.decode(Bench.POOL_DATA);
+        Bench.PoolData[] data = RLPCodec.decode(source, Bench.PoolData[].class);
+        assert Arrays.equals(RLPCodec.hash(data, new Keccak256()), HashUtil.sha3(source));
+        for (Object o : Arrays.asList(0, 1, 0x80, "", String.join("", Collections.nCopies(100, "z")), Collections.emptyList())) {
+            assert Arrays.equals(RLPCodec.hash(o, new Keccak256()), HashUtil.sha3(RLPCodec.encode(o)));
+        }
+        assert Arrays.equals(RLPList.createEmpty().hash(KECCAK), HashUtil.EMPTY_LIST_HASH);
+
+        // memoized on unmodified lists
+        RLPList list = RLPElement.fromEncoded(source).asRLPList();
+        AtomicInteger digests = new AtomicInteger();
+        java.util.function.Supplier<MessageDigest> counting = () -> {
+            digests.incrementAndGet();
+            return new Keccak256();
+        };
+        byte[] h = list.hash(counting);
+        assert Arrays.equals(h, HashUtil.sha3(source));
+        assertArrayEquals(h, list.hash(counting));
+        assert digests.get() == 1;
+        // the memoized digest is copied
+        h[0] ^= 1;
+        list.hash(counting)[1] ^= 1;
+        assertArrayEquals(HashUtil.sha3(source), list.hash(counting));
+        assert digests.get() == 1;
+        assertArrayEquals(HashUtil.sha3(source), list.hash(KECCAK));
+        assert Arrays.equals(list.get(2).hash(KECCAK), HashUtil.sha3(list.get(2).getEncoded()));
+
+        list.get(2).set(0, RLPItem.fromLong(12345));
+        data[2].chainId = 12345;
+        byte[] modified = list.hash(KECCAK);
+        assert !Arrays.equals(modified, HashUtil.sha3(source));
+        assert Arrays.equals(modified, HashUtil.sha3(RLPCodec.encode(data)));
+        assert Arrays.equals(list.get(2).hash(KECCAK), HashUtil.sha3(RLPCodec.encode(data[2])));
+    }
+
+    private static byte[] referenceKeccak(byte[] input) {
+        org.spongycastle.crypto.digests.KeccakDigest digest = new org.spongycastle.crypto.digests.KeccakDigest(256);
+        digest.update(input, 0, input.length);
+        byte[] res = new byte[32];
+        digest.doFinal(res, 0);
+        return res;
+    }
+
+    @Test
+    public void testKeccak256() throws Exception {
+        assert HexBytes.encode(Keccak256.hash(new byte[0]))
+                .equals("c5d2460186f7233c927e7db2dcc703c0e500b653ca82273b7bfad8045d85a470");
+        SecureRandom random = new SecureRandom();
+        Keccak256 k = new Keccak256();
+        for (int len : new int[]{1, 31, 32, 135, 136, 137, 271, 272, 273, 1000, 4096}) {
+            byte[] input = new byte[len + 10];
+            random.nextBytes(input);
+            byte[] data = Arrays.copyOfRange(input, 5, 5 + len);
+            byte[] expected = referenceKeccak(data);
+
+            assert Arrays.equals(Keccak256.hash(data), expected);
+            assert Arrays.equals(Keccak256.hash(input, 5, len), expected);
+            assert Arrays.equals(k.digest(data), expected);
+            // reused after digest
+            assert Arrays.equals(k.digest(data), expected);
+
+            // byte at a time and uneven chunks
+            for (byte b : data) {
+                k.update(b);
+            }
+            assert Arrays.equals(k.digest(), expected);
+            for (int i = 0; i < len; i += 7) {
+                k.update(data, i, Math.min(7, len - i));
+            }
+            assert Arrays.equals(k.digest(), expected);
+
+            ByteBuffer heap = ByteBuffer.wrap(input, 5, len);
+            assert Arrays.equals(Keccak256.hash(heap), expected) && !heap.hasRemaining();
+            ByteBuffer direct = ByteBuffer.allocateDirect(len);
+            direct.put(data).flip();
+            k.update(data, 0, Math.min(3, len));
+            direct.position(Math.min(3, len));
+            k.update(direct);
+            assert Arrays.equals(k.digest(), expected) && !direct.hasRemaining();
+
+            // clone keeps the intermediate state
+            k.update(data, 0, len / 2);
+            Keccak256 copy = k.clone();
+            k.update(data, len / 2, len - len / 2);
+            copy.update(data, len / 2, len - len / 2);
+            assert Arrays.equals(k.digest(), expected);
+            assert Arrays.equals(copy.digest(), expected);
+        }
+
+        // integration with encoded elements
+        byte[] source = HexBytes.decode(Bench.POOL_DATA);
+        RLPElement el = RLPElement.fromEncoded(source);
+        assert Arrays.equals(el.keccak256(), referenceKeccak(source));
+        // memoized, the digest is copied
+        el.keccak256()[0] ^= 1;
+        assertArrayEquals(referenceKeccak(source), el.keccak256());
+        assert Arrays.equals(RLPCodec.keccak256(RLPCodec.decode(source, Bench.PoolData[].class)), referenceKeccak(source));
+        assert Arrays.equals(HashUtil.EMPTY_TRIE_HASH, RLPItem.NULL.keccak256());
+    }
+
+    @Test
+    public void testTrie() {
+        Trie trie = new Trie(new MemoryTrieStore());
+        assert Arrays.equals(trie.getRootHash(), HashUtil.EMPTY_TRIE_HASH);
+        trie.put("doe".getBytes(), "reindeer".getBytes());
+        trie.put("dog".getBytes(), "puppy".getBytes());
+        trie.put("dogglesworth".getBytes(), "cat".getBytes());
+        assert HexBytes.encode(trie.getRootHash())
+                .equals("8aad789dff2f538bca5d8ea56e8abe10f4c7ba3a5dea95fea4cd6e7c3a1168d3");
+
+        // ethereum trie test emptyValues
+        MemoryTrieStore store = new MemoryTrieStore();
+        trie = new Trie(store);
+        String[][] ops = {
+                {"do", "verb"}, {"ether", "wookiedoo"}, {"horse", "stallion"}, {"shaman", "horse"},
+                {"doge", "coin"}, {"ether", ""}, {"dog", "puppy"}, {"shaman", ""}
+        };
+        for (String[] op : ops) {
+            trie.put(op[0].getBytes(), op[1].getBytes());
+        }
+        byte[] root = trie.commit();
+        assert HexBytes.encode(root).equals("5991bb8c6514148a29db676a14ac506cd2cd5775ace63c30a4fe457715e9ac84");
+        assert new String(trie.get("doge".getBytes())).equals("coin");
+        assert trie.get("ether".getBytes()) == null && trie.get("d".getBytes()) == null;
+
+        // reload lazily from the store
+        Trie loaded = new Trie(store, root);
+        assert new String(loaded.get("dog".getBytes())).equals("puppy");
+        assert new String(loaded.get("horse".getBytes())).equals("stallion");
+        loaded.remove("horse".getBytes());
+        loaded.put("horse".getBytes(), "stallion".getBytes());
+        assert Arrays.equals(loaded.getRootHash(), root);
+    }
+
+    @Test
+    public void testTrieRandom() {
+        Random random = new Random(7);
+        Map<String, byte[]> entries = new HashMap<>();
+        List<byte[]> keys = new ArrayList<>();
+        for (int i = 0; i < 2000; i++) {
+            byte[] key = new byte[1 + random.nextInt(6)];
+            random.nextBytes(key);
+            byte[] value = new byte[1 + random.nextInt(40)];
+            random.nextBytes(value);
+            if (entries.put(HexBytes.encode(key), value) == null) keys.add(key);
+        }
+        MemoryTrieStore store = new MemoryTrieStore();
+        Trie trie = new Trie(store);
+        for (byte[] key : keys) {
+            trie.put(key, entries.get(HexBytes.encode(key)));
+        }
+        byte[] root = trie.commit();
+
+        // insertion order does not matter
+        Trie shuffled = new Trie(new MemoryTrieStore());
+        List<byte[]> copy = new ArrayList<>(keys);
+        Collections.shuffle(copy, random);
+        for (byte[] key : copy) {
+            shuffled.put(key, entries.get(HexBytes.encode(key)));
+        }
+        assert Arrays.equals(shuffled.getRootHash(), root);
+
+        Trie loaded = new Trie(store, root);
+        for (byte[] key : keys) {
+            assert Arrays.equals(loaded.get(key), entries.get(HexBytes.encode(key)));
+        }
+
+        // a modification writes only the nodes along its path
+        int size = store.size();
+        loaded.put(keys.get(0), new byte[]{1, 2, 3});
+        loaded.commit();
+        assert store.size() - size <= 2 * 6 + 1;
+        loaded.put(keys.get(0), entries.get(HexBytes.encode(keys.get(0))));
+        assert Arrays.equals(loaded.getRootHash(), root);
+
+        // removing everything leads to the empty trie
+        for (byte[] key : copy) {
+            shuffled.remove(key);
+        }
+        assert shuffled.isEmpty() && Arrays.equals(shuffled.getRootHash(), HashUtil.EMPTY_TRIE_HASH);
+        for (int i = 0; i < copy.size() / 2; i++) {
+            loaded.remove(copy.get(i));
+        }
+        Trie half = new Trie(new MemoryTrieStore());
+        for (int i = copy.size() / 2; i < copy.size(); i++) {
+            half.put(copy.get(i), entries.get(HexBytes.encode(copy.get(i))));
+        }
+        assert Arrays.equals(loaded.getRootHash(), half.getRootHash());
+    }
+
+    public abstract static class Tx {
+    }
+
+    @Data
+    @EqualsAndHashCode(callSuper = false)
+    @AllArgsConstructor
+    @NoArgsConstructor
+    public static class LegacyTx extends Tx {
+        private long nonce;
+        private byte[] to;
+        private BigInteger value;
+    }
+
+    @Data
+    @EqualsAndHashCode(callSuper = false)
+    @AllArgsConstructor
+    @NoArgsConstructor
+    public static class AccessListTx extends Tx {
+        private long chainId;
+        private long nonce;
+        private byte[] to;
+        private BigInteger value;
+        private List<byte[]> accessList;
+    }
+
+    @Test
+    public void testTypedEnvelope() {
+        RLPContext context = RLPContext.newInstance()
+                .withTypedDecoder(1, el -> RLPCodec.decode(el, AccessListTx.class));
+        RLPMapper mapper = new RLPMapper().withContext(context);
+        byte[] to = new byte[20];
+        Arrays.fill(to, (byte) 0xab);
+        AccessListTx typed = new AccessListTx(1, 7, to, BigInteger.TEN.pow(20), Arrays.asList(to, new byte[32]));
+        LegacyTx legacy = new LegacyTx(8, to, BigInteger.ONE);
+
+        byte[] encoded = mapper.encodeTyped(1, typed);
+        assert encoded[0] == 1;
+        assert Arrays.equals(Arrays.copyOfRange(encoded, 1, encoded.length), RLPCodec.encode(typed));
+        Tx decoded = mapper.decodeTyped(encoded, Tx.class);
+        assert decoded instanceof AccessListTx;
+        AccessListTx decodedTyped = (AccessListTx) decoded;
+        assert decodedTyped.chainId == 1 && decodedTyped.nonce == 7 && Arrays.equals(decodedTyped.to, to);
+        assert decodedTyped.value.equals(typed.value) && Arrays.equals(decodedTyped.accessList.get(1), new byte[32]);
+
+        // legacy payloads are plain lists
+        Tx decodedLegacy = RLPCodec.decodeTyped(RLPCodec.encode(legacy), LegacyTx.class, context);
+        assert decodedLegacy.equals(legacy);
+
+        // typed transactions are items in a block body, legacy ones are lists
+        RLPList body = RLPList.of(RLPItem.fromBytes(encoded), RLPElement.readRLPTree(legacy));
+        RLPElement parsed = RLPElement.fromEncoded(body.getEncoded());
+        assert mapper.decodeTyped(parsed.get(0), Tx.class) instanceof AccessListTx;
+        assert mapper.decodeTyped(parsed.get(1), LegacyTx.class).equals(legacy);
+
+        for (byte[] invalid : Arrays.asList(new byte[0], new byte[]{(byte) 0x80}, mapper.encodeTyped(2, typed))) {
+            try {
+                mapper.decodeTyped(invalid, Tx.class);
+                assert false;
+            } catch (RuntimeException ignored) {
+            }
+        }
+        try {
+            mapper.decodeTyped(encoded, LegacyTx.class);
+            assert false;
+        } catch (RuntimeException ignored) {
+        }
+        try {
+            RLPCodec.encodeTyped(0x80, typed);
+            assert false;
+        } catch (RuntimeException ignored) {
+        }
+    }
+
+    @Data
+    @AllArgsConstructor
+    @NoArgsConstructor
+    public static class SignedTx {
+        private long nonce;
+        private byte[] to;
+        private BigInteger value;
+        private List<String> data;
+        private int v;
+        private BigInteger r;
+        private BigInteger s;
+    }
+
+    @Test
+    public void testFieldMask() {
+        SignedTx tx = new SignedTx(
+                9, new byte[20], BigInteger.TEN, Arrays.asList("a", "b"), 27, BigInteger.valueOf(3), BigInteger.valueOf(4)
+        );
+        FieldMask unsigned = FieldMask.exclude(SignedTx.class, "v", "r", "s");
+        assert FieldMask.exclude(SignedTx.class, "v", "r", "s") == unsigned;
+
+        RLPList full = RLPElement.readRLPTree(tx).asRLPList();
+        byte[] expected = RLPList.fromElements(full.subList(0, 4)).getEncoded();
+        assert Arrays.equals(RLPCodec.encode(tx, unsigned), expected);
+        assert Arrays.equals(RLPCodec.keccak256(tx, unsigned), referenceKeccak(expected));
+        // the object is not modified
+        assert RLPCodec.decode(RLPCodec.encode(tx), SignedTx.class).equals(tx);
+
+        // selected fields are encoded in declaration order
+        FieldMask signature = FieldMask.include(SignedTx.class, "s", "r", "v");
+        assert Arrays.equals(
+                RLPCodec.encode(tx, signature), RLPList.fromElements(full.subList(4, 7)).getEncoded()
+        );
+
+        for (Runnable invalid : Arrays.<Runnable>asList(
+                () -> FieldMask.exclude(SignedTx.class, "w"),
+                () -> RLPCodec.encode(new LegacyTx(), unsigned)
+        )) {
+            try {
+                invalid.run();
+                assert false;
+            } catch (RuntimeException ignored) {
+            }
+        }
+    }
+
+    public static class CountingEncoder implements RLPEncoder<Long> {
+        static int count;
+
+        @Override
+        public RLPElement encode(Long o) {
+            count++;
+            return RLPItem.fromLong(o);
+        }
+    }
+
+    public static class BlockHeader {
+        @RLPEncoding(CountingEncoder.class)
+        private final long number;
+        private final byte[] parentHash;
+        @RLPSource
+        private RLPElement source;
+
+        public BlockHeader() {
+            this(0, null);
+        }
+
+        public BlockHeader(long number, byte[] parentHash) {
+            this.number = number;
+            this.parentHash = parentHash;
+        }
+
+        public BlockHeader withNumber(long number) {
+            return new BlockHeader(number, parentHash);
+        }
+    }
+
+    public static class MutableHeader {
+        private long number;
+        @RLPSource
+        private RLPElement source;
+    }
+
+    @Test
+    public void testRetainSource() {
+        byte[] encoded = RLPCodec.encode(new BlockHeader(100, new byte[32]));
+        BlockHeader header = RLPCodec.decode(encoded, BlockHeader.class);
+        assert header.number == 100 && header.source != null;
+        int count = CountingEncoder.count;
+        assert Arrays.equals(RLPCodec.encode(header), encoded);
+        assert Arrays.equals(RLPCodec.keccak256(header), referenceKeccak(encoded));
+        assert RLPElement.readRLPTree(header) == header.source;
+        ByteBuffer buf = ByteBuffer.allocate(encoded.length);
+        assertEquals(encoded.length, RLPCodec.encode(header, buf));
+        assertArrayEquals(encoded, buf.array());
+        // the source field is not encoded and not masked
+        assert RLPElement.fromEncoded(encoded).size() == 2;
+        byte[] masked = RLPCodec.encode(header, FieldMask.exclude(BlockHeader.class, "parentHash"));
+        assert masked[1] == 100;
+        assert CountingEncoder.count == count + 1;
+
+        // nested pojos retain their slices
+        byte[] headers = RLPCodec.encode(Arrays.asList(new BlockHeader(1, new byte[32]), new BlockHeader(2, new byte[32])));
+        BlockHeader[] decoded = RLPCodec.decode(headers, BlockHeader[].class);
+        assert Arrays.equals(RLPCodec.encode(decoded), headers);
+        assert Arrays.equals(RLPCodec.encode(decoded[1]), RLPCodec.encode(new BlockHeader(2, new byte[32])));
+
+        // a modified copy has no source
+        count = CountingEncoder.count;
+        BlockHeader modified = header.withNumber(101);
+        assert modified.source == null;
+        assert RLPCodec.decode(RLPCodec.encode(modified), BlockHeader.class).number == 101;
+        assert CountingEncoder.count == count + 1;
+
+        // fields which may be assigned after decoding are rejected
+        for (Runnable r : Arrays.<Runnable>asList(
+                () -> RLPCodec.decode(RLPList.of(RLPItem.fromLong(1)).getEncoded(), MutableHeader.class),
+                () -> RLPCodec.encode(new MutableHeader()))) {
+            try {
+                r.run();
+                assert false;
+            } catch (RuntimeException ignored) {
+            }
+        }
+    }
+
+    public static class Relayed {
+        private long id;
+        @RLPOpaque
+        private byte[] payload;
+        @RLPOpaque
+        private RLPElement body;
+    }
+
+    @Test
+    public void testOpaqueFields() {
+        Node node = new Node("1");
+        node.addChildren(Arrays.asList(new Node("2"), new Node("3")));
+        byte[] payload = RLPCodec.encode(node);
+        Relayed relayed = new Relayed();
+        relayed.id = 1;
+        relayed.payload = payload;
+        relayed.body = RLPElement.readRLPTree(node);
+        byte[] encoded = RLPCodec.encode(relayed);
+        assert Arrays.equals(encoded, RLPList.of(
+                RLPItem.fromLong(1), RLPElement.fromEncoded(payload), RLPElement.fromEncoded(payload)
+        ).getEncoded());
+
+        Relayed decoded = RLPCodec.decode(encoded, Relayed.class);
+        assert Arrays.equals(decoded.payload, payload);
+        // subtrees are not parsed when decoded and re-encoded
+        assert decoded.body instanceof LazyElement && ((LazyElement) decoded.body).getParsed() == null;
+        assertArrayEquals(encoded, RLPCodec.encode(decoded));
+        assert ((LazyElement) decoded.body).getParsed() == null;
+        assert RLPCodec.decode(decoded.body, Node.class).children.size() == 2;
+
+        relayed.payload = Arrays.copyOf(payload, payload.length - 1);
+        try {
+            RLPCodec.encode(relayed);
+            assert false;
+        } catch (RuntimeException ignored) {
+        }
+    }
+
+    @Test
+    public void testSharedSubtrees() {
+        // every level refers to the same child twice
+        Node node = new Node("leaf");
+        for (int i = 0; i < 12; i++) {
+            Node parent = new Node("level" + i);
+            parent.addChildren(Arrays.asList(node, node));
+            node = parent;
+        }
+        RLPContext shared = RLPContext.newInstance().withSharedSubtrees(true);
+        byte[] encoded = RLPCodec.encode(node, shared);
+        assert Arrays.equals(encoded, RLPCodec.encode(node));
+        ByteBuffer buf = ByteBuffer.allocate(encoded.length);
+        assertEquals(encoded.length, RLPCodec.encode(node, shared, buf));
+        assertArrayEquals(encoded, buf.array());
+
+        BlockHeader header = new BlockHeader(7, new byte[32]);
+        List<BlockHeader> headers = Collections.nCopies(10, header);
+        int count = CountingEncoder.count;
+        assert Arrays.equals(RLPCodec.encode(headers, shared), RLPCodec.encode(headers));
+        assert CountingEncoder.count == count + 1 + 10;
+
+        // memo does not outlive an encoding call
+        Node leaf = new Node("leaf");
+        List<Node> leaves = Collections.nCopies(10, leaf);
+        RLPCodec.encode(leaves, shared);
+        leaf.name = "changed";
+        assert RLPCodec.decode(RLPCodec.encode(leaves, shared), Node[].class)[9].name.equals("changed");
+    }
+
+    @Test
+    public void testDecodeCache() throws Exception {
+        DecodeCache cache = new DecodeCache(4, 1);
+        RLPMapper mapper = new RLPMapper().withDecodeCache(cache, LegacyTx.class);
+        byte[] encoded = RLPCodec.encode(new LegacyTx(1, new byte[20], BigInteger.ONE));
+        LegacyTx tx = mapper.decode(encoded, LegacyTx.class);
+        assert mapper.decode(encoded.clone(), LegacyTx.class) == tx;
+        assert cache.getHits() == 1 && cache.getMisses() == 1 && cache.size() == 1;
+        // classes not opted in are not cached
+        byte[] node = RLPCodec.encode(new Node("1"));
+        assert mapper.decode(node, Node.class) != mapper.decode(node, Node.class);
+        assert cache.getHits() + cache.getMisses() == 2;
+
+        // least recently used entries are evicted
+        for (int i = 2; i <= 6; i++) {
+            mapper.decode(RLPCodec.encode(new LegacyTx(i, new byte[20], BigInteger.ONE)), LegacyTx.class);
+            assert mapper.decode(encoded, LegacyTx.class) == tx;
+        }
+        assert cache.size() == 4 && cache.getEvictions() == 2;
+        assert mapper.withContext(RLPContext.EMPTY).decode(encoded, LegacyTx.class) == tx;
+
+        // callers may reuse their buffer after decoding
+        byte[] buffer = RLPCodec.encode(new LegacyTx(7, new byte[20], BigInteger.ONE));
+        LegacyTx seven = mapper.decode(buffer, LegacyTx.class);
+        byte[] eight = RLPCodec.encode(new LegacyTx(8, new byte[20], BigInteger.ONE));
+        System.arraycopy(eight, 0, buffer, 0, eight.length);
+        assert mapper.decode(buffer, LegacyTx.class).getNonce() == 8;
+        assert seven.getNonce() == 7;
+        assert mapper.decode(RLPCodec.encode(new LegacyTx(7, new byte[20], BigInteger.ONE)), LegacyTx.class) == seven;
+
+        // concurrent decoding
+        cache.clear();
+        List<byte[]> inputs = new ArrayList<>();
+        for (int i = 0; i < 16; i++) {
+            inputs.add(RLPCodec.encode(new LegacyTx(i, new byte[20], BigInteger.TEN)));
+        }
+        DecodeCache shared = new DecodeCache(1024);
+        RLPMapper concurrent = new RLPMapper().withDecodeCache(shared, LegacyTx.class);
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        List<Future<Boolean>> futures = new ArrayList<>();
+        for (int t = 0; t < 4; t++) {
+            futures.add(executor.submit(() -> {
+                for (int i = 0; i < 1000; i++) {
+                    if (concurrent.decode(inputs.get(i % 16), LegacyTx.class).getNonce() != i % 16) return false;
+                }
+                return true;
+            }));
+        }
+        for (Future<Boolean> f : futures) {
+            assert f.get();
+        }
+        executor.shutdown();
+        assert shared.size() == 16 && shared.getHits() + shared.getMisses() == 4000 && shared.getMisses() >= 16;
+    }
+
+    @Test
+    public void testArena() throws Exception {
+        Bench.PoolData[] datas = RLPCodec.decode(HexBytes.decode(Bench.POOL_DATA), Bench.PoolData[].class);
+        RLPArena arena = new RLPArena(4096);
+        List<RLPArena.Handle> handles = new ArrayList<>();
+        for (Bench.PoolData data : datas) {
+            handles.add(arena.store(RLPCodec.encode(data)));
+        }
+        for (int i = 0; i < datas.length; i++) {
+            RLPArena.Handle h = handles.get(i);
+            byte[] encoded = RLPCodec.encode(datas[i]);
+            assert Arrays.equals(h.getEncoded(), encoded);
+            assert Arrays.equals(h.keccak256(), referenceKeccak(encoded));
+            assert h.size() == 10 && h.get(0).asLong() == datas[i].chainId;
+            assert Arrays.equals(h.get(1).asBytes(), datas[i].address);
+            assert Arrays.equals(RLPCodec.encode(RLPCodec.decode(h, Bench.PoolData.class)), encoded);
+            assert Arrays.equals(RLPCodec.encode(h), encoded);
+        }
+
+        // nested lists and long prefixes
+        Node node = new Node(String.join("", Collections.nCopies(100, "x")));
+        node.addChildren(Arrays.asList(new Node("2"), new Node("3")));
+        RLPArena.Handle h = arena.store(RLPElement.readRLPTree(node));
+        assert h.get(0).asString().equals(node.name);
+        assert h.get(1).size() == 2 && h.get(1).get(1).get(0).asString().equals("3");
+        assert h.get(1).get(0).get(1).isNull() && h.asRLPList().get(1).size() == 2;
+        RLPElement child = h.get(1);
+
+        // released trees are not readable and their segments are reused
+        long reserved = arena.getReservedBytes();
+        arena.release(handles);
+        h.release();
+        assert arena.getUsedBytes() == 0;
+        for (Runnable released : Arrays.<Runnable>asList(() -> handles.get(0).get(0), child::size, h::getEncoded)) {
+            try {
+                released.run();
+                assert false;
+            } catch (RuntimeException ignored) {
+            }
+        }
+        for (Bench.PoolData data : datas) {
+            arena.store(RLPCodec.encode(data));
+        }
+        assert arena.getReservedBytes() == reserved;
+        RLPArena.Handle last = arena.store(RLPCodec.encode(datas[0]));
+        arena.clear();
+        assert last.isReleased() && arena.getUsedBytes() == 0;
+
+        for (byte[] invalid : Arrays.asList(new byte[0], new byte[]{(byte) 0xc2, 0x01}, new byte[]{(byte) 0xc1, (byte) 0x81})) {
+            try {
+                arena.store(invalid);
+                assert false;
+            } catch (RuntimeException ignored) {
+            }
+        }
+    }
+
+    @Test
+    public void testTrieProof() throws Exception {
+        Trie empty = new Trie(new MemoryTrieStore());
+        assert empty.prove(new byte[]{1}).length == 0;
+        assert Trie.verifyProof(Trie.EMPTY_ROOT, new byte[]{1}, new byte[0][]) == null;
+
+        Random random = new Random(13);
+        MemoryTrieStore store = new MemoryTrieStore();
+        Trie trie = new Trie(store);
+        Map<String, byte[]> entries = new HashMap<>();
+        for (int i = 0; i < 500; i++) {
+            byte[] key = new byte[1 + random.nextInt(4)];
+            random.nextBytes(key);
+            // short values make inlined nodes
+            byte[] value = new byte[1 + random.nextInt(i % 2 == 0 ? 4 : 40)];
+            random.nextBytes(value);
+            entries.put(HexBytes.encode(key), value);
+            trie.put(key, value);
+        }
+        byte[] root = trie.commit();
+        Trie loaded = new Trie(store, root);
+        for (Map.Entry<String, byte[]> e : entries.entrySet()) {
+            byte[] key = HexBytes.decode(e.getKey());
+            byte[][] proof = trie.prove(key);
+            assert Arrays.equals(Trie.verifyProof(root, key, proof), e.getValue());
+            assert Arrays.deepEquals(loaded.prove(key), proof);
+        }
+        int absent = 0;
+        for (int i = 0; i < 500; i++) {
+            byte[] key = new byte[1 + random.nextInt(4)];
+            random.nextBytes(key);
+            if (entries.containsKey(HexBytes.encode(key))) continue;
+            absent++;
+            assert Trie.verifyProof(root, key, trie.prove(key)) == null;
+        }
+        assert absent > 0;
+
+        byte[] key = HexBytes.decode(entries.keySet().iterator().next());
+        byte[][] proof = trie.prove(key);
+        // tampered, truncated and extended proofs are rejected
+        byte[][] tampered = proof.clone();
+        tampered[proof.length - 1] = tampered[proof.length - 1].clone();
+        tampered[proof.length - 1][tampered[proof.length - 1].length - 1] ^= 1;
+        byte[][] truncated = Arrays.copyOf(proof, proof.length - 1);
+        byte[][] extended = Arrays.copyOf(proof, proof.length + 1);
+        extended[proof.length] = proof[0];
+        for (byte[][] invalid : Arrays.asList(tampered, truncated, extended)) {
+            try {
+                Trie.verifyProof(root, key, invalid);
+                assert false;
+            } catch (RuntimeException ignored) {
+            }
+        }
+        try {
+            Trie.verifyProof(Trie.EMPTY_ROOT, key, proof);
+            assert false;
+        } catch (RuntimeException ignored) {
+        }
+    }
+
+    @Test
+    public void testOrderedTrieRoot() {
+        assert Arrays.equals(OrderedTrieRoot.of(Collections.emptyList()), Trie.EMPTY_ROOT);
+        Random random = new Random(11);
+        for (int n : new int[]{1, 2, 16, 127, 128, 129, 255, 256, 257, 1000}) {
+            List<byte[]> values = new ArrayList<>();
+            Trie reference = new Trie(new MemoryTrieStore());
+            for (int i = 0; i < n; i++) {
+                // short values are inlined into their parents
+                byte[] value = new byte[1 + random.nextInt(i % 3 == 0 ? 8 : 120)];
+                random.nextBytes(value);
+                values.add(value);
+                reference.put(RLPCodec.encodeInt(i), value);
+            }
+            assert Arrays.equals(OrderedTrieRoot.of(values), reference.getRootHash());
+        }
+
+        OrderedTrieRoot root = new OrderedTrieRoot();
+        root.add(new byte[]{1});
+        byte[] hash = root.getRootHash();
+        assert Arrays.equals(root.getRootHash(), hash);
+        try {
+            root.add(new byte[]{2});
+            assert false;
+        } catch (RuntimeException ignored) {
+        }
+    }
+
+    @Test
+    public void testSliceRetention() {
+        Node node = new Node("1");
+        node.addChildren(Arrays.asList(new Node("2"), new Node("3")));
+        byte[] big = new byte[1 << 16];
+        Relayed relayed = new Relayed();
+        relayed.id = 1;
+        relayed.payload = RLPCodec.encode(big);
+        relayed.body = RLPElement.readRLPTree(node);
+        byte[] encoded = RLPCodec.encode(relayed);
+        byte[] body = RLPCodec.encode(node);
+
+        for (boolean lazy : Arrays.asList(true, false)) {
+            RLPElement root = RLPElement.fromEncoded(encoded, lazy);
+            RLPElement el = root.get(2);
+            // parse part of the subtree
+            assert el.get(1).get(0).get(0).asString().equals("2");
+            assert RLPRetention.logicalBytes(el) == body.length;
+            assert RLPRetention.retainedBytes(el) >= encoded.length;
+            RLPElement copy = el.detach();
+            assert copy != el;
+            // single byte items are not slices
+            assert RLPRetention.retainedBytes(copy) < 2 * body.length;
+            assertArrayEquals(body, copy.getEncoded());
+            assert RLPCodec.decode(copy, Node.class).children.get(1).name.equals("3");
+            long payload = RLPRetention.retainedBytes(root.get(1).detach());
+            assert payload >= big.length && payload < encoded.length;
+            // the source is unchanged and still invalidated by its children
+            assert RLPRetention.retainedBytes(el) >= encoded.length;
+            assertArrayEquals(encoded, root.getEncoded());
+            assert root.get(0).asLong() == 1;
+            el.get(1).add(RLPItem.fromLong(4));
+            assert !Arrays.equals(root.getEncoded(), encoded);
+            assertArrayEquals(body, copy.getEncoded());
+        }
+
+        Relayed decoded = RLPCodec.decode(encoded, Relayed.class);
+        assert RLPRetention.retainedBytes(decoded.body) >= encoded.length;
+        decoded = RLPCodec.decode(encoded, Relayed.class, RLPContext.EMPTY.withDetachRatio(16));
+        assert RLPRetention.retainedBytes(decoded.body) < 2 * body.length;
+        assert decoded.body instanceof LazyElement && ((LazyElement) decoded.body).getParsed() == null;
+        assertArrayEquals(encoded, RLPCodec.encode(decoded));
+        // elements kept by decoded objects are copies, the decoded tree keeps invalidating its ancestors
+        RLPList tree = RLPElement.fromEncoded(encoded).asRLPList();
+        decoded = RLPCodec.decode(tree, Relayed.class, RLPContext.EMPTY.withDetachRatio(16));
+        assert decoded.body != tree.get(2);
+        tree.get(2).get(1).add(RLPItem.fromLong(4));
+        assert !Arrays.equals(tree.getEncoded(), encoded);
+        assertArrayEquals(encoded, RLPCodec.encode(decoded));
+        // the source of a whole input is kept as is
+        byte[] input = RLPCodec.encode(new BlockHeader(1, big));
+        BlockHeader header = RLPCodec.decode(input, BlockHeader.class, RLPContext.EMPTY.withDetachRatio(1));
+        assert ((RLPList) header.source).getCachedEncoded().array() == input;
+    }
+
+    @Test
+    public void testSharedItems() throws Exception {
+        for (int i = 0; i <= 0xff; i++) {
+            RLPItem item = RLPItem.fromBytes(new byte[]{(byte) i});
+            assert Arrays.equals(item.getEncoded(), RLPCodec.encodeBytes(new byte[]{(byte) i}));
+            assert RLPElement.fromEncoded(item.getEncoded(), false) == item;
+        }
+        for (long i = 0; i < RLPItem.MAX_SHARED_INTEGER + 10; i++) {
+            RLPItem item = RLPItem.fromLong(i);
+            assert item == RLPItem.fromLong(i) == (i <= RLPItem.MAX_SHARED_INTEGER);
+            assert item.asLong() == i && item.asBigInteger().longValue() == i;
+            assert Arrays.equals(item.getEncoded(), RLPCodec.encodeBytes(item.asBytes()));
+            assert RLPElement.fromEncoded(item.getEncoded()).asLong() == i;
+        }
+        assert RLPItem.fromInt(300) == RLPItem.fromBigInteger(BigInteger.valueOf(300));
+        assert RLPItem.fromLong(1) == RLPItem.ONE && RLPItem.fromLong(0) == RLPItem.NULL;
+
+        RLPList list = RLPElement.fromEncoded(RLPList.of(
+                RLPItem.fromLong(7), RLPItem.fromLong(300), RLPItem.fromBytes(new byte[]{0}), RLPItem.fromLong(1L << 40)
+        ).getEncoded(), false).asRLPList();
+        assert list.get(0) == RLPItem.fromLong(7) && list.get(1) == RLPItem.fromLong(300);
+        assert list.get(3).asLong() == 1L << 40;
+        try {
+            list.get(2).asLong();
+            assert false;
+        } catch (RuntimeException ignored) {
+        }
+        // content of shared items is copied
+        byte[] bytes = list.get(1).asBytes();
+        bytes[0] = 0;
+        assert RLPItem.fromLong(300).asLong() == 300;
+        assert Arrays.equals(RLPCodec.decode(RLPCodec.encode(new byte[]{5}), byte[].class), new byte[]{5});
+        // and when deduplicated
+        RLPContext dedup = RLPContext.EMPTY.withDedupCache(new DedupCache(16));
+        for (int i = 0; i < 2; i++) {
+            byte[] decoded = RLPCodec.decode(RLPCodec.encode(new byte[]{1}), byte[].class, dedup);
+            decoded[0] = 2;
+        }
+        assertArrayEquals(new byte[]{1}, RLPItem.fromLong(1).asBytes());
+        assertArrayEquals(new byte[]{1}, RLPCodec.decode(RLPCodec.encode(new byte[]{1}), byte[].class, dedup));
+        // encodings of shared items are copied
+        byte[] five = RLPCodec.encode(5L);
+        five[0] = 7;
+        assertArrayEquals(new byte[]{5}, RLPCodec.encode(5L));
+        assert RLPCodec.decode(RLPCodec.encode(5L), long.class) == 5;
+        RLPItem.fromLong(300).getEncoded()[1] = 0x7f;
+        RLPElement.fromEncoded(RLPCodec.encode(0L)).getEncoded()[0] = 0;
+        assertArrayEquals(HexBytes.decode("c682012c058080"), RLPCodec.encode(new long[]{300, 5, 0, 0}));
+    }
+
+    @Test
+    public void testExternalContext() {
+        // implements the methods of the first release only
+        RLPContext external = new RLPContext() {
+            @Override
+            public <T> RLPContext withEncoder(Class<T> clazz, RLPEncoder<? super T> encoder) {
+                return this;
+            }
+
+            @Override
+            public <T> RLPContext withDecoder(Class<T> clazz, RLPDecoder<? extends T> decoder) {
+                return this;
+            }
+
+            @Override
+            public <T> RLPEncoder<T> getEncoder(Class<T> clazz) {
+                return null;
+            }
+
+            @Override
+            public <T> RLPDecoder<T> getDecoder(Class<T> clazz) {
+                return null;
+            }
+        };
+        Node node = new Node("1");
+        node.addChildren(Arrays.asList(new Node("2"), new Node("3")));
+        byte[] encoded = RLPCodec.encode(node, external);
+        assertArrayEquals(RLPCodec.encode(node), encoded);
+        assert RLPCodec.decode(encoded, Node.class, external).children.size() == 2;
+        assert external.withLazyList(false) == external && !external.isLazyList();
+        try {
+            external.withSharedSubtrees(true);
+            assert false;
+        } catch (UnsupportedOperationException ignored) {
+        }
+    }
 }